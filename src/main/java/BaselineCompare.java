@@ -0,0 +1,310 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.util.json.Jackson;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Holds the timing reports of one or more test suite runs (see
+ * TestTimingListener) against those of a baseline, and exits with 1 when the
+ * current runs are slower beyond the tolerances, so the suite can gate a new
+ * gateway build. Compared are:
+ *
+ * the S3 calls per second of the whole suite (--throughput-tolerance),
+ * the p99 latency of every operation with at least --min-calls calls
+ * (--latency-tolerance) and the total time of every test that took at least
+ * --min-test-millis in the baseline and passed on both sides
+ * (--test-tolerance). Tolerances are relative: 0.2 lets a metric get 20%
+ * worse.
+ *
+ * With one report per side a metric beyond its tolerance is a regression.
+ * Given two or more reports per side (repeated runs, comma separated), it also
+ * has to be significant: Welch's t-test, one sided, p below --alpha. That
+ * keeps a noisy test from failing the gate on one slow run.
+ *
+ * Run with e.g.
+ *
+ * gradle compareBaseline -PcompareArgs="--baseline base1.json,base2.json,base3.json --current build/reports/test-timings.json"
+ */
+public class BaselineCompare {
+
+	static class Metric {
+		final String name;
+		final boolean higherIsBetter;
+		final double tolerance;
+		final List<Double> baseline = new ArrayList<Double>();
+		final List<Double> current = new ArrayList<Double>();
+
+		Metric(String name, boolean higherIsBetter, double tolerance) {
+			this.name = name;
+			this.higherIsBetter = higherIsBetter;
+			this.tolerance = tolerance;
+		}
+
+		/**
+		 * How much worse the current mean is than the baseline mean, relative
+		 * to the baseline; negative when it got better.
+		 */
+		double worse() {
+			double base = mean(baseline), cur = mean(current);
+			if (base == 0) {
+				return 0;
+			}
+			return (higherIsBetter ? base - cur : cur - base) / base;
+		}
+
+		/**
+		 * The one sided p-value of the current runs being worse, NaN when a
+		 * side has fewer than two runs.
+		 */
+		double pValue() {
+			if (baseline.size() < 2 || current.size() < 2) {
+				return Double.NaN;
+			}
+			return higherIsBetter ? welch(baseline, current) : welch(current, baseline);
+		}
+	}
+
+	final Map<String, String> options = new HashMap<String, String>();
+	final Map<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+	public static void main(String[] args) throws IOException {
+		BaselineCompare compare = new BaselineCompare(args);
+		System.exit(compare.run() ? 0 : 1);
+	}
+
+	BaselineCompare(String[] args) {
+		options.put("baseline", "");
+		options.put("current", "build/reports/test-timings.json");
+		options.put("throughput-tolerance", "0.10");
+		options.put("latency-tolerance", "0.20");
+		options.put("test-tolerance", "0.25");
+		options.put("min-calls", "20");
+		options.put("min-test-millis", "1000");
+		options.put("alpha", "0.05");
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+				throw new IllegalArgumentException("Unknown option " + args[i] + ", known: " + options.keySet());
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		if (args.length % 2 != 0) {
+			throw new IllegalArgumentException("Missing value for " + args[args.length - 1]);
+		}
+		if (options.get("baseline").isEmpty()) {
+			throw new IllegalArgumentException("No --baseline report given");
+		}
+	}
+
+	double option(String name) {
+		return Double.parseDouble(options.get(name));
+	}
+
+	static List<JsonNode> read(String files) throws IOException {
+		List<JsonNode> reports = new ArrayList<JsonNode>();
+		for (String file : files.split(",")) {
+			reports.add(Jackson.getObjectMapper().readTree(new File(file.trim())));
+		}
+		return reports;
+	}
+
+	/**
+	 * Compares and prints the result, returns false if anything regressed.
+	 */
+	boolean run() throws IOException {
+		List<JsonNode> baseline = read(options.get("baseline"));
+		List<JsonNode> current = read(options.get("current"));
+
+		// the metrics to gate on are picked from the baseline
+		for (JsonNode report : baseline) {
+			metric("suite calls/s", true, option("throughput-tolerance"));
+			Iterator<Map.Entry<String, JsonNode>> ops = report.path("operations").fields();
+			while (ops.hasNext()) {
+				Map.Entry<String, JsonNode> op = ops.next();
+				if (op.getValue().path("calls").asLong() >= option("min-calls")) {
+					metric(op.getKey() + " p99 ms", false, option("latency-tolerance"));
+				}
+			}
+			for (JsonNode test : report.path("tests")) {
+				if ("PASS".equals(test.path("status").asText())
+						&& test.path("totalMillis").asDouble() >= option("min-test-millis")) {
+					metric(test.path("test").asText() + " ms", false, option("test-tolerance"));
+				}
+			}
+		}
+		collect(baseline, true);
+		collect(current, false);
+
+		// only the metrics beyond their tolerance are listed, regressions first
+		double alpha = option("alpha");
+		List<Metric> changed = new ArrayList<Metric>();
+		int compared = 0, regressed = 0;
+		for (Metric m : metrics.values()) {
+			if (m.baseline.isEmpty() || m.current.isEmpty()) {
+				continue;
+			}
+			compared++;
+			if (Math.abs(m.worse()) > m.tolerance) {
+				changed.add(m);
+				if (verdict(m, alpha) == 0) {
+					regressed++;
+				}
+			}
+		}
+		Collections.sort(changed, Comparator.comparingInt((Metric m) -> verdict(m, alpha))
+				.thenComparingDouble(m -> -Math.abs(m.worse())));
+
+		StringBuilder sb = new StringBuilder(String.format("%d baseline and %d current runs%n", baseline.size(),
+				current.size()));
+		sb.append(String.format("%-72s %12s %12s %8s %8s %s%n", "metric", "baseline", "current", "change", "p",
+				"verdict"));
+		for (Metric m : changed) {
+			double p = m.pValue();
+			double change = (mean(m.current) - mean(m.baseline)) / mean(m.baseline);
+			sb.append(String.format("%-72s %12.2f %12.2f %+7.1f%% %8s %s%n", m.name, mean(m.baseline),
+					mean(m.current), change * 100, Double.isNaN(p) ? "-" : String.format("%.3f", p),
+					VERDICTS[verdict(m, alpha)]));
+		}
+		sb.append(String.format("%d metrics compared, %d regressed%n", compared, regressed));
+		System.out.print(sb);
+		return regressed == 0;
+	}
+
+	static final String[] VERDICTS = { "REGRESSED", "slower, not significant", "improved" };
+
+	// an index into VERDICTS, for a metric beyond its tolerance
+	static int verdict(Metric m, double alpha) {
+		if (m.worse() < 0) {
+			return 2;
+		}
+		double p = m.pValue();
+		return Double.isNaN(p) || p < alpha ? 0 : 1;
+	}
+
+	void metric(String name, boolean higherIsBetter, double tolerance) {
+		if (!metrics.containsKey(name)) {
+			metrics.put(name, new Metric(name, higherIsBetter, tolerance));
+		}
+	}
+
+	void add(String name, boolean baseline, double value) {
+		Metric m = metrics.get(name);
+		if (m != null) {
+			(baseline ? m.baseline : m.current).add(value);
+		}
+	}
+
+	void collect(List<JsonNode> reports, boolean baseline) {
+		for (JsonNode report : reports) {
+			add("suite calls/s", baseline, report.path("callsPerSecond").asDouble());
+			Iterator<Map.Entry<String, JsonNode>> ops = report.path("operations").fields();
+			while (ops.hasNext()) {
+				Map.Entry<String, JsonNode> op = ops.next();
+				add(op.getKey() + " p99 ms", baseline, op.getValue().path("p99Millis").asDouble());
+			}
+			for (JsonNode test : report.path("tests")) {
+				// a failed test's time says nothing about the gateway
+				if ("PASS".equals(test.path("status").asText())) {
+					add(test.path("test").asText() + " ms", baseline, test.path("totalMillis").asDouble());
+				}
+			}
+		}
+	}
+
+	static double mean(List<Double> values) {
+		double sum = 0;
+		for (double v : values) {
+			sum += v;
+		}
+		return sum / values.size();
+	}
+
+	static double variance(List<Double> values) {
+		double mean = mean(values), sum = 0;
+		for (double v : values) {
+			sum += (v - mean) * (v - mean);
+		}
+		return sum / (values.size() - 1);
+	}
+
+	/**
+	 * Welch's t-test: the probability of a's mean exceeding b's by at least as
+	 * much as observed if they were really the same, without assuming equal
+	 * variances.
+	 */
+	static double welch(List<Double> a, List<Double> b) {
+		double va = variance(a) / a.size(), vb = variance(b) / b.size();
+		double diff = mean(a) - mean(b);
+		if (va + vb == 0) {
+			return diff > 0 ? 0 : 1;
+		}
+		double t = diff / Math.sqrt(va + vb);
+		double df = (va + vb) * (va + vb) / (va * va / (a.size() - 1) + vb * vb / (b.size() - 1));
+		// P(T > t) of Student's t with df degrees of freedom
+		double tail = 0.5 * incompleteBeta(df / (df + t * t), df / 2, 0.5);
+		return t > 0 ? tail : 1 - tail;
+	}
+
+	/*
+	 * The regularized incomplete beta function I_x(a, b), from its continued
+	 * fraction evaluated with Lentz's method.
+	 */
+	static double incompleteBeta(double x, double a, double b) {
+		if (x <= 0) {
+			return 0;
+		}
+		if (x >= 1) {
+			return 1;
+		}
+		if (x > (a + 1) / (a + b + 2)) {
+			return 1 - incompleteBeta(1 - x, b, a);
+		}
+		double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x)
+				+ b * Math.log(1 - x)) / a;
+		double tiny = 1e-300;
+		double f = 1, c = 1, d = 0;
+		for (int i = 0; i <= 200; i++) {
+			int m = i / 2;
+			double numerator;
+			if (i == 0) {
+				numerator = 1;
+			} else if (i % 2 == 0) {
+				numerator = m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m));
+			} else {
+				numerator = -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+			}
+			d = 1 + numerator * d;
+			d = Math.abs(d) < tiny ? tiny : d;
+			d = 1 / d;
+			c = 1 + numerator / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			double cd = c * d;
+			f *= cd;
+			if (Math.abs(1 - cd) < 1e-12) {
+				break;
+			}
+		}
+		return front * (f - 1);
+	}
+
+	// Lanczos approximation
+	static double logGamma(double x) {
+		double[] g = { 76.18009172947146, -86.50532032941677, 24.01409824083091, -1.231739572450155,
+				0.1208650973866179e-2, -0.5395239384953e-5 };
+		double y = x, tmp = x + 5.5;
+		tmp -= (x + 0.5) * Math.log(tmp);
+		double series = 1.000000000190015;
+		for (double c : g) {
+			series += c / ++y;
+		}
+		return -tmp + Math.log(2.5066282746310005 * series / x);
+	}
+}
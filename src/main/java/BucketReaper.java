@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteBucketRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+
+/**
+ * Empties and removes buckets left behind by the tests.
+ *
+ * Buckets are processed concurrently and the keys of every bucket are removed
+ * with DeleteObjects batches of up to 1000 keys, which are themselves spread
+ * over a bounded pool. Per-key and per-bucket errors are logged and do not stop
+ * the teardown; buckets that survive it are returned as leaked. Client side
+ * errors (e.g. connection failures) only retry the listing page or delete
+ * batch that failed, see TeardownRetry.
+ */
+public class BucketReaper {
+
+	static final int MAX_KEYS_PER_DELETE = 1000;
+
+	private final ExecutorService bucketPool;
+	private final ExecutorService deletePool;
+	private final TeardownRetry retry;
+
+	public BucketReaper(int threads, TeardownRetry retry) {
+		this.retry = retry;
+		// the teardown calls count for the test that tears down, see TestTimingListener
+		bucketPool = ThreadPools.inheritTestContext(
+				Executors.newFixedThreadPool(threads, ThreadPools.daemonThreads("teardown-bucket")));
+		deletePool = ThreadPools.inheritTestContext(
+				Executors.newFixedThreadPool(threads, ThreadPools.daemonThreads("teardown-delete")));
+	}
+
+	/**
+	 * Deletes the given buckets and returns the ones that could not be removed.
+	 */
+	public List<String> deleteBuckets(final AmazonS3 svc, Collection<String> bucketNames) {
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		final List<String> leaked = Collections.synchronizedList(new ArrayList<String>());
+		for (final String bucket_name : bucketNames) {
+			futures.add(bucketPool.submit(() -> {
+				if (!deleteBucket(svc, bucket_name)) {
+					leaked.add(bucket_name);
+				}
+			}));
+		}
+		waitFor(futures);
+		return leaked;
+	}
+
+	/**
+	 * Empties and deletes a bucket. Returns false if the bucket is still around
+	 * afterwards.
+	 */
+	public boolean deleteBucket(final AmazonS3 svc, final String bucket_name) {
+		try {
+			List<Future<?>> batches = new ArrayList<Future<?>>();
+			VersionListing version_listing = retry
+					.call(() -> svc.listVersions(new ListVersionsRequest().withBucketName(bucket_name)));
+			while (true) {
+				List<KeyVersion> keys = new ArrayList<KeyVersion>();
+				for (S3VersionSummary vs : version_listing.getVersionSummaries()) {
+					keys.add(new KeyVersion(vs.getKey(), vs.getVersionId()));
+				}
+				submitDeletes(svc, bucket_name, keys, batches);
+				if (version_listing.isTruncated()) {
+					final VersionListing previous = version_listing;
+					version_listing = retry.call(() -> svc.listNextBatchOfVersions(previous));
+				} else {
+					break;
+				}
+			}
+			waitFor(batches);
+
+			batches.clear();
+			ObjectListing object_listing = retry.call(() -> svc.listObjects(bucket_name));
+			while (true) {
+				List<KeyVersion> keys = new ArrayList<KeyVersion>();
+				for (S3ObjectSummary summary : object_listing.getObjectSummaries()) {
+					keys.add(new KeyVersion(summary.getKey()));
+				}
+				submitDeletes(svc, bucket_name, keys, batches);
+				if (object_listing.isTruncated()) {
+					final ObjectListing previous = object_listing;
+					object_listing = retry.call(() -> svc.listNextBatchOfObjects(previous));
+				} else {
+					break;
+				}
+			}
+			waitFor(batches);
+
+			retry.run(() -> svc.deleteBucket(new DeleteBucketRequest(bucket_name)));
+			S3.logger.info(String.format("Deleted bucket: %s", bucket_name));
+		} catch (AmazonServiceException e) {
+			return "NoSuchBucket".equals(e.getErrorCode());
+		} catch (SdkClientException e) {
+			S3.logger.warn(String.format("Giving up on bucket %s: %s", bucket_name, e.getMessage()));
+			return false;
+		}
+		return true;
+	}
+
+	private void submitDeletes(final AmazonS3 svc, final String bucket_name, List<KeyVersion> keys,
+			List<Future<?>> batches) {
+		for (int from = 0; from < keys.size(); from += MAX_KEYS_PER_DELETE) {
+			final List<KeyVersion> batch = new ArrayList<KeyVersion>(
+					keys.subList(from, Math.min(from + MAX_KEYS_PER_DELETE, keys.size())));
+			batches.add(deletePool.submit(() -> deleteKeys(svc, bucket_name, batch)));
+		}
+	}
+
+	private void deleteKeys(final AmazonS3 svc, final String bucket_name, final List<KeyVersion> keys) {
+		S3.logger.info(String.format("Deleting %d objects/versions from bucket: %s", keys.size(), bucket_name));
+		try {
+			retry.call(() -> svc.deleteObjects(new DeleteObjectsRequest(bucket_name).withKeys(keys).withQuiet(true)));
+		} catch (SdkClientException e) {
+			// the bucket delete then fails with BucketNotEmpty and is reported as leaked
+			S3.logger.warn(String.format("Could not delete %d objects/versions from bucket %s: %s", keys.size(),
+					bucket_name, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Waits for all the given tasks to finish.
+	 */
+	private static void waitFor(List<Future<?>> futures) {
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				S3.logger.warn(String.format("Teardown task failed: %s", e.getCause()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+
+/**
+ * Records the latency of every S3 call, per operation (PutObject, UploadPart,
+ * ListObjects, ...), from the moment the SDK starts the request until the
+ * response or the final error, so retries and backoff are included. Installed
+ * as a request handler on the clients built by S3.
+ *
+ * Latencies go into one OperationStats (HdrHistogram Recorder, microseconds)
+ * per operation. When a log file is given, the interval histograms are written
+ * to it with HistogramLogWriter every interval, tagged with the operation name,
+ * so they can be plotted with HistogramLogAnalyzer or similar tools.
+ */
+public class LatencyMetrics extends RequestHandler2 {
+
+	private static final HandlerContextKey<Long> START = new HandlerContextKey<Long>("LatencyMetrics.start");
+
+	private final ConcurrentHashMap<String, OperationStats> byOperation = new ConcurrentHashMap<String, OperationStats>();
+	private HistogramLogWriter logWriter;
+	private ScheduledExecutorService logScheduler;
+	private long logStartMillis;
+	private long lastLogMillis;
+
+	/**
+	 * Starts writing interval histograms to logFile every intervalMillis.
+	 */
+	public synchronized void startLog(String logFile, long intervalMillis) throws FileNotFoundException {
+		logStartMillis = lastLogMillis = System.currentTimeMillis();
+		logWriter = new HistogramLogWriter(new PrintStream(logFile));
+		logWriter.outputLogFormatVersion();
+		logWriter.outputStartTime(logStartMillis);
+		logWriter.outputLegend();
+		logScheduler = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemonThreads("latency-log"));
+		logScheduler.scheduleAtFixedRate(this::writeInterval, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void beforeRequest(Request<?> request) {
+		request.addHandlerContext(START, System.nanoTime());
+	}
+
+	@Override
+	public void afterResponse(Request<?> request, Response<?> response) {
+		record(request, false);
+	}
+
+	@Override
+	public void afterError(Request<?> request, Response<?> response, Exception e) {
+		record(request, true);
+	}
+
+	private void record(Request<?> request, boolean failed) {
+		Long start = request.getHandlerContext(START);
+		if (start == null) {
+			return;
+		}
+		String operation = RetryMetrics.operationName(request);
+		byOperation.computeIfAbsent(operation, OperationStats::new).record(System.nanoTime() - start, 0, failed);
+	}
+
+	private synchronized void writeInterval() {
+		if (logWriter == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, OperationStats> e : getStats().entrySet()) {
+			Histogram h = e.getValue().interval();
+			if (h.getTotalCount() == 0) {
+				continue;
+			}
+			h.setTag(e.getKey());
+			// values are in microseconds, max is logged in milliseconds
+			logWriter.outputIntervalHistogram((lastLogMillis - logStartMillis) / 1e3, (now - logStartMillis) / 1e3, h,
+					1000.0);
+		}
+		lastLogMillis = now;
+	}
+
+	/**
+	 * Flushes the last interval and closes the log, if one was started.
+	 */
+	public synchronized void close() {
+		if (logScheduler != null) {
+			logScheduler.shutdownNow();
+			logScheduler = null;
+		}
+		if (logWriter != null) {
+			writeInterval();
+			logWriter.close();
+			logWriter = null;
+		}
+	}
+
+	public Map<String, OperationStats> getStats() {
+		return new TreeMap<String, OperationStats>(byOperation);
+	}
+
+	public void reset() {
+		byOperation.clear();
+	}
+
+	public String report() {
+		StringBuilder sb = new StringBuilder(String.format("%-32s %10s %8s %9s %9s %9s %9s %9s %9s%n", "operation",
+				"calls", "errors", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (Map.Entry<String, OperationStats> e : getStats().entrySet()) {
+			Histogram h = e.getValue().total();
+			sb.append(String.format("%-32s %10d %8d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n", e.getKey(),
+					h.getTotalCount(), e.getValue().getErrors(), h.getMean() / 1e3, h.getValueAtPercentile(50) / 1e3,
+					h.getValueAtPercentile(90) / 1e3, h.getValueAtPercentile(99) / 1e3,
+					h.getValueAtPercentile(99.9) / 1e3, h.getMaxValue() / 1e3));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,344 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * S3 load generator.
+ *
+ * Uses the client configuration, bucket naming and teardown of the S3 helper
+ * class, so the numbers reflect exactly what the test suite runs with. Requests
+ * are picked from a weighted PUT/GET/HEAD/DELETE/LIST mix against a fixed key
+ * space of a fresh bucket, and the run reports ops/s, MB/s and latency
+ * percentiles per operation.
+ *
+ * By default the load is closed loop: each worker issues one request at a time.
+ * With --rate the load is open loop instead: request n is due at start + n /
+ * rate no matter how the earlier ones fared, and its latency is measured from
+ * that intended start. A gateway stall then shows up as queueing delay in the
+ * percentiles instead of silently lowering the request rate (coordinated
+ * omission). Requests that could not be sent within --late-ms of their intended
+ * start, because all workers were busy, are counted as late.
+ *
+ * Run with e.g.
+ *
+ * gradle run -PloadArgs="--workers 32 --duration 60 --mix put=20,get=60,head=10,list=10 --size 1m"
+ * gradle run -PloadArgs="--rate 500 --workers 256 --virtual-threads true"
+ */
+public class LoadGen {
+
+	static final String[] OPERATIONS = { "put", "get", "head", "delete", "list" };
+
+	final S3 utils = S3.getInstance();
+	final Map<String, String> options = new HashMap<String, String>();
+	final Map<String, OperationStats> stats = new LinkedHashMap<String, OperationStats>();
+	final Map<String, long[]> reported = new HashMap<String, long[]>();
+
+	AmazonS3 svc;
+	String bucket;
+	long objectSize;
+	int keys;
+	String[] mix;
+
+	public static void main(String[] args) throws Exception {
+		LoadGen gen = new LoadGen(args);
+		boolean failed = false;
+		try {
+			gen.run();
+		} catch (Exception e) {
+			S3.logger.error("Load run failed", e);
+			failed = true;
+		} finally {
+			gen.cleanup();
+		}
+		// exit explicitly, the stand-in and proxy threads would keep the JVM up
+		System.exit(failed || gen.totalErrors() > 0 ? 1 : 0);
+	}
+
+	LoadGen(String[] args) {
+		options.put("workers", "16");
+		options.put("duration", "60");
+		options.put("mix", "put=20,get=50,head=10,delete=10,list=10");
+		options.put("size", "64k");
+		options.put("keys", "1000");
+		options.put("v4", "true");
+		options.put("report-interval", "10");
+		options.put("keep", "false");
+		options.put("rate", "0");
+		options.put("late-ms", "1");
+		options.put("virtual-threads", "false");
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+				throw new IllegalArgumentException("Unknown option " + args[i] + ", known: " + options.keySet());
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		if (args.length % 2 != 0) {
+			throw new IllegalArgumentException("Missing value for " + args[args.length - 1]);
+		}
+
+		svc = utils.getS3Client(Boolean.parseBoolean(options.get("v4")));
+		objectSize = parseSize(options.get("size"));
+		keys = Integer.parseInt(options.get("keys"));
+		mix = parseMix(options.get("mix"));
+		for (String op : OPERATIONS) {
+			stats.put(op, new OperationStats(op));
+		}
+	}
+
+	void run() throws InterruptedException {
+		int workers = Integer.parseInt(options.get("workers"));
+		long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+		long reportNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("report-interval")));
+
+		bucket = utils.getBucketName();
+		svc.createBucket(bucket);
+		preload(workers);
+
+		double rate = Double.parseDouble(options.get("rate"));
+		long lateNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.get("late-ms")));
+		System.out.println(String.format("%s: %d workers, %s, %d keys of %d bytes in %s",
+				rate > 0 ? String.format("open loop at %.1f ops/s", rate) : "closed loop", workers, options.get("mix"),
+				keys, objectSize, bucket));
+		ExecutorService pool = ThreadPools.newExecutor("loadgen", workers,
+				Boolean.parseBoolean(options.get("virtual-threads")));
+		long start = System.nanoTime();
+		long deadline = start + durationNanos;
+		AtomicLong tickets = new AtomicLong();
+		for (int w = 0; w < workers; w++) {
+			if (rate > 0) {
+				pool.submit(() -> openLoop(tickets, start, deadline, rate, lateNanos));
+			} else {
+				pool.submit(() -> closedLoop(deadline));
+			}
+		}
+		pool.shutdown();
+		long lastReport = start;
+		while (!pool.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+			long now = System.nanoTime();
+			if (now - lastReport >= reportNanos) {
+				report("interval", now - lastReport, false);
+				lastReport = now;
+			}
+		}
+		report("total", System.nanoTime() - start, true);
+	}
+
+	void closedLoop(long deadline) {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		while (System.nanoTime() < deadline) {
+			execute(mix[rnd.nextInt(mix.length)], rnd.nextInt(keys), System.nanoTime());
+		}
+	}
+
+	/*
+	 * Workers share one schedule: each takes the next ticket, waits for its
+	 * intended start and issues the request. When every worker is busy the
+	 * schedule keeps advancing, so the next free worker picks up an overdue
+	 * ticket and the wait is charged to that request's latency.
+	 */
+	void openLoop(AtomicLong tickets, long start, long deadline, double rate, long lateNanos) {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		while (true) {
+			long intended = start + (long) (tickets.getAndIncrement() * 1e9 / rate);
+			if (intended >= deadline) {
+				return;
+			}
+			String op = mix[rnd.nextInt(mix.length)];
+			long now;
+			while ((now = System.nanoTime()) < intended) {
+				LockSupport.parkNanos(intended - now);
+			}
+			if (now - intended > lateNanos) {
+				stats.get(op).late();
+			}
+			execute(op, rnd.nextInt(keys), intended);
+		}
+	}
+
+	/*
+	 * Makes sure every key exists before the measured run, so GET and HEAD
+	 * mostly hit existing objects. Fails the run if any key could not be
+	 * written, as the misses would otherwise be counted as GET errors.
+	 */
+	void preload(int workers) throws InterruptedException {
+		ExecutorService pool = ThreadPools.newExecutor("loadgen-preload", workers, false);
+		List<Future<?>> puts = new ArrayList<Future<?>>();
+		for (int k = 0; k < keys; k++) {
+			final int key = k;
+			puts.add(pool.submit(() -> utils.putSyntheticObject(svc, bucket, keyName(key), objectSize, key)));
+		}
+		pool.shutdown();
+		int failed = 0;
+		Throwable first = null;
+		for (Future<?> put : puts) {
+			try {
+				put.get();
+			} catch (ExecutionException e) {
+				failed++;
+				if (first == null) {
+					first = e.getCause();
+				}
+			}
+		}
+		if (failed > 0) {
+			throw new IllegalStateException(String.format("Preload failed for %d of %d keys", failed, keys), first);
+		}
+	}
+
+	/**
+	 * Issues one request and records its latency, measured from start.
+	 */
+	void execute(String op, int key, long start) {
+		long bytes = 0;
+		boolean failed = false;
+		try {
+			switch (op) {
+			case "put":
+				utils.putSyntheticObject(svc, bucket, keyName(key), objectSize, key);
+				bytes = objectSize;
+				break;
+			case "get":
+				bytes = drain(svc.getObject(bucket, keyName(key)));
+				break;
+			case "head":
+				svc.getObjectMetadata(bucket, keyName(key));
+				break;
+			case "delete":
+				svc.deleteObject(bucket, keyName(key));
+				break;
+			case "list":
+				svc.listObjectsV2(new ListObjectsV2Request().withBucketName(bucket).withMaxKeys(100)
+						.withStartAfter(keyName(key)));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown operation " + op);
+			}
+		} catch (AmazonServiceException e) {
+			// a GET or HEAD of a key a DELETE just removed is part of the mix
+			failed = e.getStatusCode() != 404;
+		} catch (SdkClientException e) {
+			failed = true;
+		} catch (IOException e) {
+			failed = true;
+		}
+		stats.get(op).record(System.nanoTime() - start, bytes, failed);
+	}
+
+	void report(String label, long elapsedNanos, boolean total) {
+		double seconds = elapsedNanos / 1e9;
+		System.out.println(String.format("%n%s %.1fs", label, seconds));
+		System.out.println(String.format("%-8s %10s %10s %10s %8s %8s %9s %9s %9s %9s %9s", "op", "count", "ops/s",
+				"MB/s", "errors", "late", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for (OperationStats s : stats.values()) {
+			Histogram h = total ? s.total() : s.interval();
+			long bytes = s.getBytes();
+			long errors = s.getErrors();
+			// bytes, errors and late requests reported so far, to print per interval deltas
+			long late = s.getLate();
+			long[] last = reported.computeIfAbsent(s.getName(), k -> new long[3]);
+			if (!total) {
+				bytes -= last[0];
+				errors -= last[1];
+				late -= last[2];
+				last[0] += bytes;
+				last[1] += errors;
+				last[2] += late;
+			}
+			if (h.getTotalCount() == 0) {
+				continue;
+			}
+			System.out.println(String.format("%-8s %10d %10.1f %10.2f %8d %8d %9.2f %9.2f %9.2f %9.2f %9.2f",
+					s.getName(), h.getTotalCount(), h.getTotalCount() / seconds, bytes / 1e6 / seconds, errors, late,
+					h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+					h.getValueAtPercentile(99) / 1e3, h.getValueAtPercentile(99.9) / 1e3, h.getMaxValue() / 1e3));
+		}
+	}
+
+	long totalErrors() {
+		long errors = 0;
+		for (OperationStats s : stats.values()) {
+			errors += s.getErrors();
+		}
+		return errors;
+	}
+
+	void cleanup() {
+		if (!Boolean.parseBoolean(options.get("keep"))) {
+			utils.tearDown(svc);
+		}
+	}
+
+	static String keyName(int key) {
+		return String.format("obj-%08d", key);
+	}
+
+	static long drain(S3Object object) throws IOException {
+		long total = 0;
+		byte[] buf = new byte[64 * 1024];
+		try (InputStream in = object.getObjectContent()) {
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				total += n;
+			}
+		}
+		return total;
+	}
+
+	static long parseSize(String size) {
+		String s = size.trim().toLowerCase();
+		long unit = 1;
+		if (s.endsWith("k")) {
+			unit = 1024;
+		} else if (s.endsWith("m")) {
+			unit = 1024 * 1024;
+		} else if (s.endsWith("g")) {
+			unit = 1024 * 1024 * 1024;
+		}
+		if (unit != 1) {
+			s = s.substring(0, s.length() - 1);
+		}
+		return Long.parseLong(s) * unit;
+	}
+
+	/*
+	 * "put=20,get=80" becomes a 100 slot table with 20 "put" and 80 "get"
+	 * entries, so picking an operation is one random index.
+	 */
+	static String[] parseMix(String spec) {
+		List<String> table = new ArrayList<String>();
+		for (String entry : spec.split(",")) {
+			String[] kv = entry.trim().split("=");
+			String op = kv[0].trim().toLowerCase();
+			if (!Arrays.asList(OPERATIONS).contains(op)) {
+				throw new IllegalArgumentException("Unknown operation " + op);
+			}
+			for (int i = Integer.parseInt(kv[1].trim()); i > 0; i--) {
+				table.add(op);
+			}
+		}
+		if (table.isEmpty()) {
+			throw new IllegalArgumentException("Empty operation mix " + spec);
+		}
+		return table.toArray(new String[table.size()]);
+	}
+}
@@ -0,0 +1,92 @@
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+
+/**
+ * Outcome of a parallel multipart upload or copy done by the S3 helpers: the
+ * request that completes the upload plus how long every part took, so tests and
+ * benchmarks can look at the gateway's multipart throughput.
+ */
+public class MultipartTransfer {
+
+	public static class Part {
+		private final int partNumber;
+		private final long bytes;
+		private final long nanos;
+
+		public Part(int partNumber, long bytes, long nanos) {
+			this.partNumber = partNumber;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		public int getPartNumber() {
+			return partNumber;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+	}
+
+	private final CompleteMultipartUploadRequest completeRequest;
+	private final List<Part> parts;
+	private final long elapsedNanos;
+
+	public MultipartTransfer(CompleteMultipartUploadRequest completeRequest, List<Part> parts, long elapsedNanos) {
+		this.completeRequest = completeRequest;
+		this.parts = Collections.unmodifiableList(parts);
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public CompleteMultipartUploadRequest getCompleteRequest() {
+		return completeRequest;
+	}
+
+	/**
+	 * Per-part timings, in part number order.
+	 */
+	public List<Part> getParts() {
+		return parts;
+	}
+
+	public long getBytes() {
+		long bytes = 0;
+		for (Part p : parts) {
+			bytes += p.getBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Wall clock time from the first part being submitted to the last one
+	 * finishing.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Aggregate throughput over all parts, in MiB/s.
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : getBytes() / (1024.0 * 1024.0) / (elapsedNanos / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(String.format("%s/%s: %d parts, %d bytes in %.1f ms (%.2f MiB/s)",
+				completeRequest.getBucketName(), completeRequest.getKey(), parts.size(), getBytes(),
+				elapsedNanos / 1e6, getThroughput()));
+		for (Part p : parts) {
+			sb.append(String.format("%n  part %5d: %12d bytes %10.1f ms", p.getPartNumber(), p.getBytes(),
+					p.getNanos() / 1e6));
+		}
+		return sb.toString();
+	}
+}
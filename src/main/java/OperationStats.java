@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency, error, late request and byte counts of one kind of S3 operation in a load run.
+ *
+ * Latencies are recorded in microseconds into an HdrHistogram Recorder, which
+ * any number of worker threads can write to without locking. interval() hands
+ * out what was recorded since the previous call and total() everything so
+ * far; neither takes samples away from the other.
+ */
+public class OperationStats {
+
+	private final String name;
+	private final Recorder recorder = new Recorder(3);
+	private final Histogram total = new Histogram(3);
+	private final Histogram pending = new Histogram(3);
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder late = new LongAdder();
+	private Histogram intervalHistogram;
+
+	public OperationStats(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void record(long latencyNanos, long transferred, boolean failed) {
+		recorder.recordValue(Math.max(1, latencyNanos / 1000));
+		bytes.add(transferred);
+		if (failed) {
+			errors.increment();
+		}
+	}
+
+	/**
+	 * Counts a request that was sent later than its intended start.
+	 */
+	public void late() {
+		late.increment();
+	}
+
+	public long getLate() {
+		return late.sum();
+	}
+
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	/**
+	 * Latencies (in microseconds) recorded since the previous call.
+	 */
+	public synchronized Histogram interval() {
+		drain();
+		Histogram h = pending.copy();
+		pending.reset();
+		return h;
+	}
+
+	/**
+	 * All latencies (in microseconds) recorded so far. Does not change what
+	 * the next interval() returns.
+	 */
+	public synchronized Histogram total() {
+		drain();
+		return total.copy();
+	}
+
+	/*
+	 * A Recorder can only be read by taking its samples, so they are kept in
+	 * pending until interval() hands them out.
+	 */
+	private void drain() {
+		intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+		total.add(intervalHistogram);
+		pending.add(intervalHistogram);
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Picks the part size and the number of parts in flight for the multipart
+ * helpers in S3.
+ *
+ * The part size starts from a configured default and is then steered by the
+ * per-part latencies of earlier transfers: parts that finish much faster than
+ * the target part time are dominated by per-request overhead and get larger,
+ * slow parts get smaller. The result is always kept within the S3 limits (5 MiB
+ * minimum, 5 GiB maximum, 10,000 parts). Concurrency is derived from the
+ * in-flight byte budget, so larger parts mean fewer of them at once.
+ */
+public class PartSizePlanner {
+
+	public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+	public static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+	public static final int MAX_PARTS = 10000;
+
+	private static final long MiB = 1024 * 1024;
+	private static final double EWMA_WEIGHT = 0.2;
+
+	public static class Plan {
+		private final long objectSize;
+		private final long partSize;
+		private final int concurrency;
+
+		Plan(long objectSize, long partSize, int concurrency) {
+			this.objectSize = objectSize;
+			this.partSize = partSize;
+			this.concurrency = concurrency;
+		}
+
+		public long getObjectSize() {
+			return objectSize;
+		}
+
+		public long getPartSize() {
+			return partSize;
+		}
+
+		public int getPartCount() {
+			return partCount(objectSize, partSize);
+		}
+
+		public int getConcurrency() {
+			return concurrency;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d bytes in %d parts of %d bytes, %d in flight", objectSize, getPartCount(),
+					partSize, concurrency);
+		}
+	}
+
+	private final long defaultPartSize;
+	private final long inflightBytes;
+	private final long targetPartMillis;
+	private final int maxConcurrency;
+
+	// bytes per millisecond of a single part stream, 0 until measured
+	private double partBandwidth;
+
+	public PartSizePlanner(long defaultPartSize, long inflightBytes, long targetPartMillis, int maxConcurrency) {
+		this.defaultPartSize = defaultPartSize;
+		this.inflightBytes = inflightBytes;
+		this.targetPartMillis = targetPartMillis;
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	public synchronized Plan plan(long objectSize) {
+		long partSize = defaultPartSize;
+		if (partBandwidth > 0) {
+			partSize = roundUp((long) (partBandwidth * targetPartMillis), MiB);
+		}
+		partSize = Math.max(partSize, roundUp(divideRoundUp(objectSize, MAX_PARTS), MiB));
+		partSize = Math.min(Math.max(partSize, MIN_PART_SIZE), MAX_PART_SIZE);
+
+		long concurrency = Math.max(1, inflightBytes / partSize);
+		concurrency = Math.min(concurrency, Math.min(maxConcurrency, Math.max(1, partCount(objectSize, partSize))));
+		return new Plan(objectSize, partSize, (int) concurrency);
+	}
+
+	/**
+	 * A plan with a caller chosen part size, for tests that need specific (odd)
+	 * sizes. Only the 10,000 part limit is enforced.
+	 */
+	public Plan fixed(long objectSize, long partSize, int concurrency) {
+		checkPartCount(objectSize, partSize);
+		return new Plan(objectSize, partSize, concurrency);
+	}
+
+	/**
+	 * Feeds the per-part timings of a finished transfer back into the planner.
+	 */
+	public synchronized void record(MultipartTransfer transfer) {
+		for (MultipartTransfer.Part p : transfer.getParts()) {
+			if (p.getNanos() <= 0) {
+				continue;
+			}
+			double bandwidth = p.getBytes() / (p.getNanos() / 1e6);
+			partBandwidth = partBandwidth == 0 ? bandwidth
+					: EWMA_WEIGHT * bandwidth + (1 - EWMA_WEIGHT) * partBandwidth;
+		}
+	}
+
+	public static void checkPartCount(long objectSize, long partSize) {
+		if (partSize <= 0) {
+			throw new IllegalArgumentException("Part size must be positive: " + partSize);
+		}
+		if (partCount(objectSize, partSize) > MAX_PARTS) {
+			throw new IllegalArgumentException(String.format("%d bytes in parts of %d bytes exceeds %d parts",
+					objectSize, partSize, MAX_PARTS));
+		}
+	}
+
+	static int partCount(long objectSize, long partSize) {
+		return (int) Math.min(Integer.MAX_VALUE, divideRoundUp(objectSize, partSize));
+	}
+
+	private static long divideRoundUp(long a, long b) {
+		return (a + b - 1) / b;
+	}
+
+	private static long roundUp(long value, long unit) {
+		return divideRoundUp(value, unit) * unit;
+	}
+}
@@ -0,0 +1,160 @@
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.AWSRequestMetrics.Field;
+import com.amazonaws.util.TimingInfo;
+
+/**
+ * Breaks the time of every S3 call down into what the SDK spent on it, per
+ * test and operation: signing, getting a connection, sending the request,
+ * waiting for and reading the response, and sleeping between retries.
+ * Installed as the metrics collector of the clients built by S3, which also
+ * makes the SDK fill in its AWSRequestMetrics for every request.
+ *
+ * The test name is whatever S3.setCurrentTest() set on the calling thread,
+ * and every call is also counted in the S3.setRequestCounter() of the thread.
+ */
+public class RequestTimings extends RequestMetricCollector {
+
+	public static class Timings {
+		final LongAdder calls = new LongAdder();
+		final LongAdder failed = new LongAdder();
+		final LongAdder retries = new LongAdder();
+		final DoubleAdder totalMillis = new DoubleAdder();
+		final DoubleAdder signingMillis = new DoubleAdder();
+		final DoubleAdder connectMillis = new DoubleAdder();
+		final DoubleAdder sendMillis = new DoubleAdder();
+		final DoubleAdder receiveMillis = new DoubleAdder();
+		final DoubleAdder retryPauseMillis = new DoubleAdder();
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		public long getFailed() {
+			return failed.sum();
+		}
+
+		public long getRetries() {
+			return retries.sum();
+		}
+
+		/**
+		 * Client execution time, from the start of the call to the result.
+		 */
+		public double getTotalMillis() {
+			return totalMillis.sum();
+		}
+
+		public double getSigningMillis() {
+			return signingMillis.sum();
+		}
+
+		/**
+		 * Time inside the HTTP client that was spent neither sending nor
+		 * receiving: mostly waiting for a pooled connection, connecting and
+		 * the TLS handshake.
+		 */
+		public double getConnectMillis() {
+			return connectMillis.sum();
+		}
+
+		public double getSendMillis() {
+			return sendMillis.sum();
+		}
+
+		public double getReceiveMillis() {
+			return receiveMillis.sum();
+		}
+
+		public double getRetryPauseMillis() {
+			return retryPauseMillis.sum();
+		}
+	}
+
+	private final ConcurrentHashMap<String, Timings> byTestAndOperation = new ConcurrentHashMap<String, Timings>();
+
+	@Override
+	public void collectMetrics(Request<?> request, Response<?> response) {
+		LongAdder counter = S3.getRequestCounter();
+		if (counter != null) {
+			counter.increment();
+		}
+		AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+		if (metrics == null || !metrics.isEnabled()) {
+			return;
+		}
+		TimingInfo timing = metrics.getTimingInfo();
+		String test = S3.getCurrentTest();
+		String key = (test == null ? "-" : test) + " " + RetryMetrics.operationName(request);
+		Timings t = byTestAndOperation.computeIfAbsent(key, k -> new Timings());
+
+		double http = sum(timing, Field.HttpRequestTime);
+		double send = sum(timing, Field.HttpClientSendRequestTime);
+		double receive = sum(timing, Field.HttpClientReceiveResponseTime);
+		t.calls.increment();
+		if (response == null) {
+			t.failed.increment();
+		}
+		// RequestCount is the number of attempts
+		t.retries.add(Math.max(0, count(timing, Field.RequestCount) - 1)
+				+ count(timing, Field.HttpClientRetryCount));
+		t.totalMillis.add(sum(timing, Field.ClientExecuteTime));
+		t.signingMillis.add(sum(timing, Field.RequestSigningTime));
+		t.connectMillis.add(Math.max(0, http - send - receive));
+		t.sendMillis.add(send);
+		t.receiveMillis.add(receive);
+		t.retryPauseMillis.add(sum(timing, Field.RetryPauseTime));
+	}
+
+	private static double sum(TimingInfo timing, Field field) {
+		List<TimingInfo> measurements = timing.getAllSubMeasurements(field.name());
+		double millis = 0;
+		if (measurements != null) {
+			for (TimingInfo m : measurements) {
+				Double taken = m.getTimeTakenMillisIfKnown();
+				if (taken != null) {
+					millis += taken;
+				}
+			}
+		}
+		return millis;
+	}
+
+	private static long count(TimingInfo timing, Field field) {
+		Number n = timing.getCounter(field.name());
+		return n == null ? 0 : n.longValue();
+	}
+
+	/**
+	 * Timings keyed by "test operation", sorted.
+	 */
+	public Map<String, Timings> getTimings() {
+		return new TreeMap<String, Timings>(byTestAndOperation);
+	}
+
+	public void reset() {
+		byTestAndOperation.clear();
+	}
+
+	public String report() {
+		StringBuilder sb = new StringBuilder(
+				String.format("%-72s %8s %6s %7s %10s %10s %10s %10s %10s %10s%n", "test operation", "calls",
+						"failed", "retries", "total ms", "sign ms", "connect ms", "send ms", "receive ms", "pause ms"));
+		for (Map.Entry<String, Timings> e : getTimings().entrySet()) {
+			Timings t = e.getValue();
+			sb.append(String.format("%-72s %8d %6d %7d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", e.getKey(),
+					t.getCalls(), t.getFailed(), t.getRetries(), t.getTotalMillis(), t.getSigningMillis(),
+					t.getConnectMillis(), t.getSendMillis(), t.getReceiveMillis(), t.getRetryPauseMillis()));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,133 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+
+/**
+ * Counts, per S3 operation, how many attempts every call needed so that
+ * retries show up next to the latency numbers instead of silently inflating
+ * them. Installed as a request handler on the clients built by S3.
+ */
+public class RetryMetrics extends RequestHandler2 {
+
+	private static final HandlerContextKey<AtomicInteger> ATTEMPTS = new HandlerContextKey<AtomicInteger>(
+			"RetryMetrics.attempts");
+
+	public static class Counts {
+		final LongAdder calls = new LongAdder();
+		final LongAdder retriedCalls = new LongAdder();
+		final LongAdder retries = new LongAdder();
+		final LongAdder throttled = new LongAdder();
+		final LongAdder failed = new LongAdder();
+		final LongAccumulator maxRetries = new LongAccumulator(Math::max, 0);
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		public long getRetriedCalls() {
+			return retriedCalls.sum();
+		}
+
+		public long getRetries() {
+			return retries.sum();
+		}
+
+		public long getThrottled() {
+			return throttled.sum();
+		}
+
+		public long getFailed() {
+			return failed.sum();
+		}
+
+		public long getMaxRetries() {
+			return maxRetries.get();
+		}
+	}
+
+	private final ConcurrentHashMap<String, Counts> byOperation = new ConcurrentHashMap<String, Counts>();
+
+	static String operationName(Request<?> request) {
+		String name = request.getHandlerContext(HandlerContextKey.OPERATION_NAME);
+		if (name == null) {
+			name = request.getOriginalRequest().getClass().getSimpleName().replaceFirst("Request$", "");
+		}
+		return name;
+	}
+
+	private Counts countsFor(Request<?> request) {
+		return byOperation.computeIfAbsent(operationName(request), k -> new Counts());
+	}
+
+	@Override
+	public void beforeAttempt(HandlerBeforeAttemptContext context) {
+		Request<?> request = context.getRequest();
+		AtomicInteger attempts = request.getHandlerContext(ATTEMPTS);
+		if (attempts == null) {
+			attempts = new AtomicInteger();
+			request.addHandlerContext(ATTEMPTS, attempts);
+		}
+		attempts.incrementAndGet();
+	}
+
+	@Override
+	public void afterAttempt(HandlerAfterAttemptContext context) {
+		if (S3RetryPolicy.isThrottled(context.getException())) {
+			countsFor(context.getRequest()).throttled.increment();
+		}
+	}
+
+	@Override
+	public void afterResponse(Request<?> request, Response<?> response) {
+		record(request, false);
+	}
+
+	@Override
+	public void afterError(Request<?> request, Response<?> response, Exception e) {
+		record(request, true);
+	}
+
+	private void record(Request<?> request, boolean failed) {
+		AtomicInteger attempts = request.getHandlerContext(ATTEMPTS);
+		int retries = attempts == null ? 0 : Math.max(0, attempts.get() - 1);
+		Counts counts = countsFor(request);
+		counts.calls.increment();
+		if (retries > 0) {
+			counts.retriedCalls.increment();
+			counts.retries.add(retries);
+			counts.maxRetries.accumulate(retries);
+		}
+		if (failed) {
+			counts.failed.increment();
+		}
+	}
+
+	public Map<String, Counts> getCounts() {
+		return new TreeMap<String, Counts>(byOperation);
+	}
+
+	public void reset() {
+		byOperation.clear();
+	}
+
+	public String report() {
+		StringBuilder sb = new StringBuilder(String.format("%-32s %10s %10s %10s %10s %10s %6s%n", "operation",
+				"calls", "retried", "retries", "throttled", "failed", "max"));
+		for (Map.Entry<String, Counts> e : getCounts().entrySet()) {
+			Counts c = e.getValue();
+			sb.append(String.format("%-32s %10d %10d %10d %10d %10d %6d%n", e.getKey(), c.getCalls(),
+					c.getRetriedCalls(), c.getRetries(), c.getThrottled(), c.getFailed(), c.getMaxRetries()));
+		}
+		return sb.toString();
+	}
+}
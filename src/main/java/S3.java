@@ -1,16 +1,32 @@
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.LogManager;
@@ -24,29 +40,26 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.Bucket;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CopyPartRequest;
 import com.amazonaws.services.s3.model.CopyPartResult;
-import com.amazonaws.services.s3.model.DeleteBucketRequest;
 import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
 import com.amazonaws.services.s3.model.ListBucketsRequest;
-import com.amazonaws.services.s3.model.ListVersionsRequest;
-import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.PartETag;
-import com.amazonaws.services.s3.model.S3ObjectSummary;
-import com.amazonaws.services.s3.model.S3VersionSummary;
 import com.amazonaws.services.s3.model.SSECustomerKey;
 import com.amazonaws.services.s3.model.UploadPartRequest;
-import com.amazonaws.services.s3.model.VersionListing;
 import com.amazonaws.services.s3.transfer.Copy;
 import com.amazonaws.services.s3.transfer.Download;
 import com.amazonaws.services.s3.transfer.MultipleFileDownload;
@@ -55,50 +68,212 @@ import com.amazonaws.services.s3.transfer.Transfer;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.amazonaws.services.s3.transfer.Upload;
-import com.amazonaws.util.IOUtils;
 
 public class S3 {
 
 	final static Logger logger = LogManager.getRootLogger();
 
-	private static S3 instance = null;
+	private static volatile S3 instance = null;
 
 	protected S3() {
 	}
 
+	/*
+	 * Test classes grab the instance from field initializers, which TestNG may
+	 * run on several threads at once when the suite is parallel.
+	 */
 	public static S3 getInstance() {
-		if (instance == null) {
-			instance = new S3();
+		S3 s3 = instance;
+		if (s3 == null) {
+			synchronized (S3.class) {
+				s3 = instance;
+				if (s3 == null) {
+					s3 = instance = new S3();
+				}
+			}
 		}
-		return instance;
+		return s3;
 	}
 
-	private Properties loadProperties() {
-		Properties prop = new Properties();
-		try {
-			InputStream input = new FileInputStream("config.properties");
+	private final S3Config config = S3Config.get();
+
+	public S3Config getConfig() {
+		return config;
+	}
+
+	/*
+	 * Clients are thread safe and expensive to build (connection pool, TLS
+	 * sessions), so one client is kept per signer type and shared by every
+	 * caller. They, and the clients built for a caller's own configuration, are
+	 * shut down when the JVM exits; callers must not shut them down themselves.
+	 */
+	private final ConcurrentHashMap<String, AmazonS3> clients = new ConcurrentHashMap<String, AmazonS3>();
+
+	{
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "s3-shutdown"));
+	}
+
+	private final RetryPolicy retryPolicy = S3RetryPolicy.create(config.getMaxErrorRetry(),
+			config.getRetryBaseDelayMillis(), config.getRetryThrottledBaseDelayMillis(),
+			config.getRetryMaxDelayMillis());
+	private final RetryMetrics retryMetrics = new RetryMetrics();
+
+	public RetryMetrics getRetryMetrics() {
+		return retryMetrics;
+	}
+
+	private final LatencyMetrics latencyMetrics = newLatencyMetrics();
+
+	private LatencyMetrics newLatencyMetrics() {
+		LatencyMetrics metrics = new LatencyMetrics();
+		String logFile = config.getLatencyLog();
+		if (!logFile.isEmpty()) {
 			try {
-				prop.load(input);
-			} catch (IOException e) {
-				e.printStackTrace();
+				metrics.startLog(logFile, config.getLatencyLogIntervalMillis());
+			} catch (FileNotFoundException e) {
+				logger.warn(String.format("Cannot write latency log %s: %s", logFile, e.getMessage()));
 			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
 		}
-		return prop;
+		return metrics;
+	}
+
+	public LatencyMetrics getLatencyMetrics() {
+		return latencyMetrics;
+	}
+
+	private final RequestTimings requestTimings = new RequestTimings();
+
+	public RequestTimings getRequestTimings() {
+		return requestTimings;
+	}
+
+	private static final ThreadLocal<String> currentTest = new ThreadLocal<String>();
+
+	/**
+	 * Names the test running on the calling thread, so requestTimings can
+	 * attribute the SDK calls made from it. null clears it.
+	 */
+	public static void setCurrentTest(String name) {
+		if (name == null) {
+			currentTest.remove();
+		} else {
+			currentTest.set(name);
+		}
+	}
+
+	public static String getCurrentTest() {
+		return currentTest.get();
+	}
+
+	private static final ThreadLocal<LongAdder> requestCounter = new ThreadLocal<LongAdder>();
+
+	/**
+	 * Counts the SDK calls made from the calling thread, and from the parts it
+	 * uploads or copies in parallel, into counter. null clears it.
+	 */
+	public static void setRequestCounter(LongAdder counter) {
+		if (counter == null) {
+			requestCounter.remove();
+		} else {
+			requestCounter.set(counter);
+		}
 	}
 
-	private Properties prop = loadProperties();
+	public static LongAdder getRequestCounter() {
+		return requestCounter.get();
+	}
 
-	public AmazonS3 getS3Client(Boolean isV4SignerType) {
-		String accessKey = prop.getProperty("access_key");
-		String secretKey = prop.getProperty("access_secret");
-		boolean issecure = Boolean.parseBoolean(prop.getProperty("is_secure"));
+	/**
+	 * Returns the shared client for the SigV4 or SigV2 configuration of
+	 * getClientConfiguration().
+	 */
+	public AmazonS3 getS3Client(final Boolean isV4SignerType) {
+		return clients.computeIfAbsent(isV4SignerType ? "v4" : "v2",
+				k -> buildClient(getClientConfiguration(isV4SignerType)));
+	}
+
+	private final AtomicInteger customClients = new AtomicInteger();
+
+	/**
+	 * Builds a new client for the given configuration, typically obtained from
+	 * getClientConfiguration() and then adjusted by the caller. These are not
+	 * shared, as any setting may differ from the cached ones; each call builds
+	 * a client with its own connection pool, shut down with the others.
+	 */
+	public AmazonS3 getS3Client(final ClientConfiguration clientConfig) {
+		AmazonS3 client = buildClient(clientConfig);
+		clients.put("custom-" + customClients.incrementAndGet(), client);
+		return client;
+	}
+
+	private AmazonS3 buildClient(ClientConfiguration clientConfig) {
+		String endpoint = getEndpoint();
+		String region = config.getRegion();
+		String accessKey = config.getAccessKey();
+		String secretKey = config.getAccessSecret();
 
 		AWSCredentialsProvider credentials = new AWSStaticCredentialsProvider(
 				new BasicAWSCredentials(accessKey, secretKey));
-		EndpointConfiguration epConfig = new AwsClientBuilder.EndpointConfiguration(prop.getProperty("endpoint"),
-				prop.getProperty("region"));
+		EndpointConfiguration epConfig = new AwsClientBuilder.EndpointConfiguration(endpoint, region);
+
+		logger.info(String.format("EP is_secure: %s - %b %n", endpoint, clientConfig.getProtocol() == Protocol.HTTPS));
+
+		return AmazonS3ClientBuilder.standard().withCredentials(credentials).withEndpointConfiguration(epConfig)
+				.withClientConfiguration(new ClientConfiguration(clientConfig))
+				.withRequestHandlers(retryMetrics, latencyMetrics).withMetricsCollector(requestTimings)
+				.enablePathStyleAccess().build();
+	}
+
+	/*
+	 * With standin set, an in-process S3StandIn is started on first use and
+	 * every client talks to it instead of the configured endpoint.
+	 */
+	private final boolean useStandIn = config.isStandIn();
+	private S3StandIn standIn;
+
+	/**
+	 * The endpoint clients connect to: the configured one, or the stand-in's,
+	 * which is started here if it is not running yet.
+	 */
+	public synchronized String getEndpoint() {
+		if (!useStandIn) {
+			return config.getEndpoint();
+		}
+		if (standIn == null) {
+			try {
+				standIn = new S3StandIn(config.getStandInPort(), config.getStandInThreads(), useVirtualThreads,
+						config.getAccessKey(), config.getDisplayName());
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot start the S3 stand-in", e);
+			}
+		}
+		return standIn.getEndpoint();
+	}
+
+	/*
+	 * With shaping_proxy set, clients go through an in-process ShapingProxy
+	 * that adds latency, caps bandwidth and injects faults, see README.md.
+	 */
+	private final boolean useShapingProxy = config.isShapingProxy();
+	private ShapingProxy shapingProxy;
+
+	private synchronized ShapingProxy getShapingProxy() {
+		if (shapingProxy == null) {
+			try {
+				shapingProxy = new ShapingProxy(config.getShapingProxyPort(),
+						config.getShapingProxyLatencyMillis(), config.getShapingProxySlowdown(),
+						config.getShapingProxyReset(), config.getShapingProxyBandwidth(), config.getShapingProxySeed(),
+						useVirtualThreads);
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot start the shaping proxy", e);
+			}
+		}
+		return shapingProxy;
+	}
+
+	public ClientConfiguration getClientConfiguration(Boolean isV4SignerType) {
+		boolean issecure = config.isSecure();
+
 		ClientConfiguration clientConfig = new ClientConfiguration();
 		if (isV4SignerType) {
 			clientConfig.setSignerOverride("AWSS3V4SignerType");
@@ -115,43 +290,152 @@ public class S3 {
 		clientConfig.setRequestTimeout(60 * 1000);
 		clientConfig.withConnectionTimeout(900 * 1000);
 		clientConfig.withSocketTimeout(900 * 1000);
-		clientConfig.withConnectionMaxIdleMillis(1 * 1000);
-		// Allow as many retries as possible until the client executiaon timeout expires
-		clientConfig.setMaxErrorRetry(Integer.MAX_VALUE);
-
-		logger.info(String.format("EP is_secure: %s - %b %n", prop.getProperty("endpoint"), issecure));
+		// Connection pool and socket tuning, see README.md for the keys
+		clientConfig.withMaxConnections(config.getMaxConnections());
+		clientConfig.withConnectionMaxIdleMillis(config.getConnectionMaxIdleMillis());
+		clientConfig.withConnectionTTL(config.getConnectionTtlMillis());
+		clientConfig.withTcpKeepAlive(config.isTcpKeepAlive());
+		clientConfig.withSocketBufferSizeHints(config.getSocketSendBufferSize(), config.getSocketReceiveBufferSize());
+		clientConfig.withUseExpectContinue(config.isUseExpectContinue());
+		clientConfig.withGzip(config.isUseGzip());
+		// Bounded retries with jittered backoff, counted per call by retryMetrics
+		clientConfig.setRetryPolicy(retryPolicy);
+		clientConfig.setMaxErrorRetry(retryPolicy.getMaxErrorRetry());
+		if (useShapingProxy) {
+			clientConfig.setProxyHost("127.0.0.1");
+			clientConfig.setProxyPort(getShapingProxy().getPort());
+			clientConfig.setNonProxyHosts("");
+		}
+		return clientConfig;
+	}
 
-		AmazonS3 s3client = AmazonS3ClientBuilder.standard().withCredentials(credentials)
-				.withEndpointConfiguration(epConfig).withClientConfiguration(clientConfig).enablePathStyleAccess()
-				.build();
-		return s3client;
+	/**
+	 * Shuts down all the cached clients and their transfer managers. Called
+	 * automatically at JVM exit.
+	 */
+	public void shutdown() {
+		if (!retryMetrics.getCounts().isEmpty()) {
+			logger.info(String.format("S3 calls and retries per operation:%n%s", retryMetrics.report()));
+		}
+		latencyMetrics.close();
+		if (!latencyMetrics.getStats().isEmpty()) {
+			logger.info(String.format("S3 call latencies per operation:%n%s", latencyMetrics.report()));
+		}
+		if (!requestTimings.getTimings().isEmpty()) {
+			logger.info(String.format("S3 call time breakdown per test:%n%s", requestTimings.report()));
+		}
+		for (AmazonS3 svc : transferManagers.keySet()) {
+			TransferManager tm = transferManagers.remove(svc);
+			if (tm != null) {
+				tm.shutdownNow(false);
+			}
+		}
+		for (String key : clients.keySet()) {
+			AmazonS3 client = clients.remove(key);
+			if (client != null) {
+				client.shutdown();
+			}
+		}
+		synchronized (this) {
+			if (shapingProxy != null) {
+				shapingProxy.stop();
+				shapingProxy = null;
+			}
+			if (standIn != null) {
+				standIn.stop();
+				standIn = null;
+			}
+		}
 	}
 
+	/**
+	 * The bucket prefix of this run: bucket_prefix, followed by the shard
+	 * number when the suite is sharded, so shards running against the same
+	 * gateway never tear down each other's buckets.
+	 */
 	public String getPrefix() {
-		String prefix;
-		if (prop.getProperty("bucket_prefix") != null) {
-			prefix = prop.getProperty("bucket_prefix");
-		} else {
-			prefix = "test-";
+		if (config.getShardCount() > 1) {
+			return String.format("%ss%d-", config.getBucketPrefix(), config.getShardIndex());
 		}
-		return prefix;
+		return config.getBucketPrefix();
 	}
 
+	/*
+	 * In a parallel run every thread that creates buckets gets its own worker
+	 * number, which is inserted after the configured prefix. Each worker then
+	 * tracks, tears down and sweeps only its own buckets, and never deletes a
+	 * bucket another test is still using.
+	 */
+	private volatile boolean parallel = false;
+	private final AtomicInteger workerCount = new AtomicInteger();
+	private final ThreadLocal<Integer> worker = ThreadLocal.withInitial(workerCount::getAndIncrement);
+
+	/**
+	 * Switches to per-thread bucket prefixes, called by ParallelSuiteListener
+	 * when the suite runs with parallel set.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * The prefix of the buckets created by the calling thread: getPrefix() in
+	 * a sequential run, getPrefix() plus the worker number in a parallel one.
+	 */
+	public String getThreadPrefix() {
+		return parallel ? String.format("%sw%d-", getPrefix(), worker.get()) : getPrefix();
+	}
+
+	/**
+	 * Returns a fresh bucket name starting with prefix, tracked for the calling
+	 * thread. With the default prefix the name starts with getThreadPrefix().
+	 */
 	public String getBucketName(String prefix) {
 		Random rand = new Random();
 		int num = rand.nextInt(50);
 		String randomStr = UUID.randomUUID().toString();
 
-		return prefix + randomStr + num;
+		String bucket_name = (prefix.equals(getPrefix()) ? getThreadPrefix() : prefix) + randomStr + num;
+		trackBucket(bucket_name);
+		return bucket_name;
 	}
 
 	public String getBucketName() {
-		String prefix = getPrefix();
-		Random rand = new Random();
-		int num = rand.nextInt(50);
-		String randomStr = UUID.randomUUID().toString();
+		return getBucketName(getPrefix());
+	}
+
+	/*
+	 * Buckets handed out by getBucketName() or touched by the helpers below are
+	 * remembered here, per thread prefix, so that tearDown() only has to clean
+	 * up the calling thread's buckets instead of scanning every bucket on the
+	 * gateway.
+	 */
+	private final ConcurrentHashMap<String, Set<String>> trackedBuckets = new ConcurrentHashMap<String, Set<String>>();
+
+	private Set<String> trackedBuckets() {
+		return trackedBuckets.computeIfAbsent(getThreadPrefix(),
+				k -> Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+	}
+
+	public void trackBucket(String bucket_name) {
+		if (bucket_name != null) {
+			trackedBuckets().add(bucket_name);
+		}
+	}
 
-		return prefix + randomStr + num;
+	/**
+	 * A file for the calling thread to write to, in a directory of its own
+	 * under build/scratch, so tests running in parallel never overwrite each
+	 * other's downloads or the shared files under data/.
+	 */
+	public File getScratchFile(String name) {
+		File dir = new File("build/scratch", getThreadPrefix());
+		dir.mkdirs();
+		return new File(dir, name);
 	}
 
 	public String repeat(String str, int count) {
@@ -162,104 +446,151 @@ public class S3 {
 	}
 
 	public Boolean isEPSecure() {
-		return Boolean.parseBoolean(prop.getProperty("is_secure"));
+		// the stand-in only speaks plain HTTP
+		return !useStandIn && config.isSecure();
 	}
 
-	public int teradownRetries = 0;
+	private final TeardownRetry teardownRetry = new TeardownRetry(config.getTeardownRetryBaseMillis(),
+			config.getTeardownRetryMaxMillis(), config.getTeardownRetryBudgetMillis());
+
+	private final BucketReaper reaper = new BucketReaper(config.getTeardownThreads(), teardownRetry);
+
+	/*
+	 * With async_teardown enabled the tracked buckets are handed over to a
+	 * single background thread and the calling test continues right away. Each
+	 * test works on fresh UUID named buckets, so the cleanup never races with
+	 * the next test. tearDownAll() waits for the queue to drain.
+	 */
+	private final boolean asyncTeardown = config.isAsyncTeardown();
+	private ExecutorService backgroundReaper;
+	private final Set<String> leakedBuckets = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// only started once async_teardown is used
+	private synchronized ExecutorService backgroundReaper() {
+		if (backgroundReaper == null) {
+			backgroundReaper = ThreadPools.inheritTestContext(
+					Executors.newSingleThreadExecutor(ThreadPools.daemonThreads("teardown-reaper")));
+		}
+		return backgroundReaper;
+	}
+
+	/**
+	 * Removes the buckets created since the last teardown.
+	 */
+	public void tearDown(final AmazonS3 svc) {
+		final Set<String> trackedBuckets = trackedBuckets();
+		final List<String> bucketNames = new ArrayList<String>(trackedBuckets);
+		if (asyncTeardown) {
+			trackedBuckets.removeAll(bucketNames);
+			backgroundReaper().submit(() -> {
+				logger.info(String.format("Background TEARDOWN of %d tracked buckets", bucketNames.size()));
+				try {
+					leakedBuckets.addAll(reaper.deleteBuckets(svc, bucketNames));
+				} catch (RuntimeException e) {
+					logger.warn(String.format("Background TEARDOWN of %s failed: %s", bucketNames, e));
+					leakedBuckets.addAll(bucketNames);
+				}
+			});
+			return;
+		}
+		logger.info(String.format("TEARDOWN of %d tracked buckets", bucketNames.size()));
+		leakedBuckets.addAll(reaper.deleteBuckets(svc, bucketNames));
+		trackedBuckets.removeAll(bucketNames);
+	}
 
-	public void tearDown(AmazonS3 svc) {
-		if (teradownRetries > 0) {
+	/**
+	 * Waits until the background teardown queue is empty and returns the buckets
+	 * under prefix that could not be removed since the last call. Leaks under
+	 * other prefixes, e.g. those of other workers in a parallel run, are left
+	 * for their owners.
+	 */
+	public List<String> awaitTeardown(String prefix) {
+		if (asyncTeardown) {
 			try {
-				Thread.sleep(2500);
+				backgroundReaper().submit(() -> {
+				}).get();
 			} catch (InterruptedException e) {
-
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				logger.warn(String.format("Waiting for the background TEARDOWN failed: %s", e.getCause()));
+			}
+		}
+		List<String> leaked = new ArrayList<String>();
+		for (String bucket : leakedBuckets) {
+			if (bucket.startsWith(prefix)) {
+				leaked.add(bucket);
 			}
 		}
+		leakedBuckets.removeAll(leaked);
+		return leaked;
+	}
+
+	/**
+	 * Removes every bucket matching getThreadPrefix(), including the ones left
+	 * behind by earlier runs, once the background teardown has drained. Buckets
+	 * that survive this final pass are reported as leaked.
+	 */
+	public void tearDownAll(final AmazonS3 svc) {
+		tearDownAll(svc, getThreadPrefix());
+	}
+
+	/**
+	 * Same as tearDownAll(svc) for the buckets matching prefix. Sweeping
+	 * getPrefix() in a parallel run also removes the other workers' buckets,
+	 * so that is only done once the whole suite is done.
+	 */
+	public void tearDownAll(final AmazonS3 svc, String prefix) {
+		List<String> pending = awaitTeardown(prefix);
+		if (!pending.isEmpty()) {
+			logger.info(String.format("Retrying %d buckets the previous teardowns failed to remove", pending.size()));
+		}
 		try {
 			logger.info("TEARDOWN");
-			List<Bucket> buckets = svc.listBuckets(new ListBucketsRequest());
+			List<Bucket> buckets = teardownRetry.call(() -> svc.listBuckets(new ListBucketsRequest()));
 			logger.info(String.format("Buckets list size: %d ", buckets.size()));
-			String prefix = getPrefix();
 
+			// the earlier leaks, even if the listing does not show them yet
+			Set<String> bucketNames = new LinkedHashSet<String>(pending);
 			for (Bucket b : buckets) {
-				String bucket_name = b.getName();
 				if (b.getName().startsWith(prefix)) {
-					VersionListing version_listing = svc
-							.listVersions(new ListVersionsRequest().withBucketName(bucket_name));
-					while (true) {
-						for (java.util.Iterator<S3VersionSummary> iterator = version_listing.getVersionSummaries()
-								.iterator(); iterator.hasNext();) {
-							S3VersionSummary vs = (S3VersionSummary) iterator.next();
-							logger.info(String.format("Deleting bucket/object/version: %s / %s / %s", bucket_name,
-									vs.getKey(), vs.getVersionId()));
-							try {
-								svc.deleteVersion(bucket_name, vs.getKey(), vs.getVersionId());
-							} catch (AmazonServiceException e) {
-
-							} catch (SdkClientException e) {
-
-							}
-						}
-						if (version_listing.isTruncated()) {
-							version_listing = svc.listNextBatchOfVersions(version_listing);
-						} else {
-							break;
-						}
-					}
-
-					ObjectListing object_listing = svc.listObjects(b.getName());
-					while (true) {
-						for (java.util.Iterator<S3ObjectSummary> iterator = object_listing.getObjectSummaries()
-								.iterator(); iterator.hasNext();) {
-							S3ObjectSummary summary = (S3ObjectSummary) iterator.next();
-							logger.info(
-									String.format("Deleting bucket/object: %s / %s", bucket_name, summary.getKey()));
-							try {
-								svc.deleteObject(bucket_name, summary.getKey());
-							} catch (AmazonServiceException e) {
-
-							} catch (SdkClientException e) {
-
-							}
-						}
-						if (object_listing.isTruncated()) {
-							object_listing = svc.listNextBatchOfObjects(object_listing);
-						} else {
-							break;
-						}
-					}
-					try {
-						svc.deleteBucket(new DeleteBucketRequest(b.getName()));
-						logger.info(String.format("Deleted bucket: %s", bucket_name));
-					} catch (AmazonServiceException e) {
-
-					} catch (SdkClientException e) {
-
-					}
+					bucketNames.add(b.getName());
+				}
+			}
+			List<String> leaked = reaper.deleteBuckets(svc, bucketNames);
+			if (!leaked.isEmpty()) {
+				logger.warn(String.format("Teardown leaked %d buckets: %s", leaked.size(), leaked));
+			}
+			for (Map.Entry<String, Set<String>> tracked : trackedBuckets.entrySet()) {
+				if (tracked.getKey().startsWith(prefix)) {
+					tracked.getValue().clear();
 				}
 			}
-		} catch (AmazonServiceException e) {
-
 		} catch (SdkClientException e) {
-			if (teradownRetries < 10) {
-				++teradownRetries;
-				tearDown(svc);
+			logger.warn(String.format("Teardown could not list buckets: %s", e.getMessage()));
+			if (!pending.isEmpty()) {
+				logger.warn(String.format("Teardown leaked %d buckets: %s", pending.size(), pending));
 			}
 		}
 	}
 
+	/**
+	 * Writes an SSE-C encrypted object of file_size times "testcontent" bytes and
+	 * reads it back. Returns the MD5 of the content written and the MD5 of the
+	 * content read, hex encoded, the latter being null if the read failed.
+	 */
 	public String[] EncryptionSseCustomerWrite(AmazonS3 svc, int file_size) {
 
 		String prefix = getPrefix();
 		String bucket_name = getBucketName(prefix);
 		String key = "key1";
-		String data = repeat("testcontent", file_size);
-		InputStream datastream = new ByteArrayInputStream(data.getBytes());
+		long size = (long) file_size * "testcontent".length();
+		long seed = file_size;
+		InputStream datastream = new SyntheticObjectStream(seed, size);
 
 		svc.createBucket(bucket_name);
 
 		ObjectMetadata objectMetadata = new ObjectMetadata();
-		objectMetadata.setContentLength(data.length());
+		objectMetadata.setContentLength(size);
 		objectMetadata.setContentType("text/plain");
 		objectMetadata.setHeader("x-amz-server-side-encryption-customer-key",
 				"pO3upElrwuEXSoFwCfnZPdSsmt/xWeFa0N9KgDijwVs=");
@@ -273,24 +604,38 @@ public class S3 {
 		GetObjectRequest getRequest = new GetObjectRequest(bucket_name, key);
 		getRequest.withSSECustomerKey(skey);
 
-		InputStream inputStream = svc.getObject(getRequest).getObjectContent();
+		String expected = SyntheticObjectStream.md5Hex(seed, size);
 		String rdata = null;
-		try {
-			rdata = IOUtils.toString(inputStream);
+		try (InputStream inputStream = svc.getObject(getRequest).getObjectContent()) {
+			if (SyntheticObjectStream.verify(inputStream, seed, 0, size)) {
+				rdata = expected;
+			} else {
+				rdata = "content mismatch";
+			}
 		} catch (IOException e) {
 			// e.printStackTrace();
 		}
 
 		String arr[] = new String[2];
-		arr[0] = data;
+		arr[0] = expected;
 		arr[1] = rdata;
 
 		return arr;
 	}
 
+	/**
+	 * Uploads size bytes of SyntheticObjectStream content for seed, without
+	 * touching the disk. The ETag of the result is SyntheticObjectStream.md5Hex().
+	 */
+	public PutObjectResult putSyntheticObject(AmazonS3 svc, String bucket, String key, long size, long seed) {
+		trackBucket(bucket);
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(size);
+		return svc.putObject(new PutObjectRequest(bucket, key, new SyntheticObjectStream(seed, size), metadata));
+	}
+
 	public Bucket createKeys(AmazonS3 svc, String[] keys) {
-		String prefix = prop.getProperty("bucket_prefix");
-		String bucket_name = getBucketName(prefix);
+		String bucket_name = getBucketName(getPrefix());
 		Bucket bucket = svc.createBucket(bucket_name);
 
 		for (String k : keys) {
@@ -302,14 +647,16 @@ public class S3 {
 	public CompleteMultipartUploadRequest multipartUploadLLAPI(AmazonS3 svc, String bucket, String key, long size,
 			String filePath) {
 
+		trackBucket(bucket);
 		List<PartETag> partETags = new ArrayList<PartETag>();
 
-		InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(bucket, key);
-		InitiateMultipartUploadResult initResponse = svc.initiateMultipartUpload(initRequest);
-
 		File file = new File(filePath);
 		long contentLength = file.length();
 		long partSize = size;
+		PartSizePlanner.checkPartCount(contentLength, partSize);
+
+		InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(bucket, key);
+		InitiateMultipartUploadResult initResponse = svc.initiateMultipartUpload(initRequest);
 
 		long filePosition = 0;
 		for (int i = 1; filePosition < contentLength; i++) {
@@ -329,17 +676,179 @@ public class S3 {
 		return compRequest;
 	}
 
+	/*
+	 * Pool used by the parallel multipart helpers when the caller does not
+	 * bring its own executor. With virtual_threads set, and on a JDK that has
+	 * them, this and the TransferManager pools run on virtual threads.
+	 */
+	private final boolean useVirtualThreads = config.isVirtualThreads();
+	private final ExecutorService partExecutor = ThreadPools.newExecutor("multipart",
+			config.getMultipartThreads(), useVirtualThreads);
+
+	public ExecutorService getPartExecutor() {
+		return partExecutor;
+	}
+
+	private final PartSizePlanner partSizePlanner = new PartSizePlanner(
+			config.getMultipartPartSize(), config.getMultipartInflightBytes(), config.getMultipartTargetPartMillis(),
+			config.getMultipartThreads());
+
+	public PartSizePlanner getPartSizePlanner() {
+		return partSizePlanner;
+	}
+
+	/**
+	 * Uploads the file in parallel with a part size and concurrency chosen by
+	 * the PartSizePlanner, which learns from the part timings of each upload.
+	 */
+	public MultipartTransfer multipartUploadLLAPI(AmazonS3 svc, String bucket, String key, String filePath) {
+		PartSizePlanner.Plan plan = partSizePlanner.plan(new File(filePath).length());
+		MultipartTransfer transfer = multipartUploadLLAPI(svc, bucket, key, plan, filePath, partExecutor);
+		partSizePlanner.record(transfer);
+		return transfer;
+	}
+
+	/**
+	 * Same as multipartUploadLLAPI() but the parts are uploaded concurrently on
+	 * the given executor. The first failing part cancels the others, aborts the
+	 * upload and is rethrown.
+	 */
+	public MultipartTransfer multipartUploadLLAPI(AmazonS3 svc, String bucket, String key, long size,
+			String filePath, ExecutorService executor) {
+		PartSizePlanner.Plan plan = partSizePlanner.fixed(new File(filePath).length(), size, Integer.MAX_VALUE);
+		return multipartUploadLLAPI(svc, bucket, key, plan, filePath, executor);
+	}
+
+	/**
+	 * Parallel upload following the given plan: parts of plan.getPartSize()
+	 * bytes with at most plan.getConcurrency() of them in flight.
+	 */
+	public MultipartTransfer multipartUploadLLAPI(final AmazonS3 svc, String bucket, String key,
+			PartSizePlanner.Plan plan, String filePath, ExecutorService executor) {
+
+		trackBucket(bucket);
+		File file = new File(filePath);
+		long contentLength = file.length();
+		PartSizePlanner.checkPartCount(contentLength, plan.getPartSize());
+
+		InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(bucket, key);
+		String uploadId = svc.initiateMultipartUpload(initRequest).getUploadId();
+
+		List<Callable<PartETag>> tasks = new ArrayList<Callable<PartETag>>();
+		final List<Long> partSizes = new ArrayList<Long>();
+		long filePosition = 0;
+		for (int i = 1; filePosition < contentLength; i++) {
+			long partSize = Math.min(plan.getPartSize(), (contentLength - filePosition));
+			final UploadPartRequest uploadRequest = new UploadPartRequest().withBucketName(bucket).withKey(key)
+					.withUploadId(uploadId).withPartNumber(i).withFileOffset(filePosition).withFile(file)
+					.withPartSize(partSize);
+			tasks.add(() -> svc.uploadPart(uploadRequest).getPartETag());
+			partSizes.add(partSize);
+			filePosition += partSize;
+		}
+
+		long start = System.nanoTime();
+		long[] nanos = new long[tasks.size()];
+		List<PartETag> partETags = runParts(svc, bucket, key, uploadId, tasks, nanos, plan.getConcurrency(),
+				executor);
+		return newTransfer(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags), partSizes, nanos,
+				System.nanoTime() - start);
+	}
+
+	/*
+	 * Runs one task per part, at most concurrency at a time, and returns their
+	 * results in part number order. nanos receives the time each part took.
+	 * Completions are consumed as they happen, so the first failure aborts the
+	 * upload right away.
+	 */
+	private <T> List<T> runParts(AmazonS3 svc, String bucket, String key, String uploadId, List<Callable<T>> tasks,
+			final long[] nanos, int concurrency, ExecutorService executor) {
+		CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+		List<Future<T>> futures = new ArrayList<Future<T>>();
+		final String test = getCurrentTest();
+		final LongAdder counter = getRequestCounter();
+		int done = 0;
+		try {
+			for (int i = 0; i < tasks.size(); i++) {
+				if (i - done >= concurrency) {
+					completion.take().get();
+					done++;
+				}
+				final int part = i;
+				final Callable<T> task = tasks.get(i);
+				futures.add(completion.submit(() -> {
+					setCurrentTest(test);
+					setRequestCounter(counter);
+					try {
+						long start = System.nanoTime();
+						T result = task.call();
+						nanos[part] = System.nanoTime() - start;
+						return result;
+					} finally {
+						setCurrentTest(null);
+						setRequestCounter(null);
+					}
+				}));
+			}
+			for (; done < tasks.size(); done++) {
+				completion.take().get();
+			}
+			List<T> results = new ArrayList<T>();
+			for (Future<T> f : futures) {
+				results.add(f.get());
+			}
+			return results;
+		} catch (ExecutionException e) {
+			abortParts(svc, bucket, key, uploadId, futures);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new SdkClientException(e.getCause());
+		} catch (InterruptedException e) {
+			abortParts(svc, bucket, key, uploadId, futures);
+			Thread.currentThread().interrupt();
+			throw new SdkClientException(e);
+		}
+	}
+
+	private void abortParts(AmazonS3 svc, String bucket, String key, String uploadId, List<? extends Future<?>> futures) {
+		for (Future<?> f : futures) {
+			f.cancel(true);
+		}
+		try {
+			svc.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+		} catch (AmazonServiceException e) {
+
+		} catch (SdkClientException e) {
+
+		}
+	}
+
+	private MultipartTransfer newTransfer(CompleteMultipartUploadRequest completeRequest, List<Long> partSizes,
+			long[] nanos, long elapsedNanos) {
+		List<MultipartTransfer.Part> parts = new ArrayList<MultipartTransfer.Part>();
+		for (int i = 0; i < nanos.length; i++) {
+			parts.add(new MultipartTransfer.Part(i + 1, partSizes.get(i), nanos[i]));
+		}
+		MultipartTransfer transfer = new MultipartTransfer(completeRequest, parts, elapsedNanos);
+		logger.info(transfer);
+		return transfer;
+	}
+
 	public CompleteMultipartUploadRequest multipartCopyLLAPI(AmazonS3 svc, String dstbkt, String dstkey, String srcbkt,
 			String srckey, long size) {
 
-		InitiateMultipartUploadRequest initiateRequest = new InitiateMultipartUploadRequest(dstbkt, dstkey);
-		InitiateMultipartUploadResult initResult = svc.initiateMultipartUpload(initiateRequest);
+		trackBucket(dstbkt);
 		GetObjectMetadataRequest metadataRequest = new GetObjectMetadataRequest(srcbkt, srckey);
 
 		ObjectMetadata metadataResult = svc.getObjectMetadata(metadataRequest);
 		long objectSize = metadataResult.getContentLength(); // in bytes
 
 		long partSize = size;
+		PartSizePlanner.checkPartCount(objectSize, partSize);
+
+		InitiateMultipartUploadRequest initiateRequest = new InitiateMultipartUploadRequest(dstbkt, dstkey);
+		InitiateMultipartUploadResult initResult = svc.initiateMultipartUpload(initiateRequest);
 
 		long bytePosition = 0;
 		int partNum = 1;
@@ -362,6 +871,69 @@ public class S3 {
 		return completeRequest;
 	}
 
+	/**
+	 * Copies the object in parallel with a part size and concurrency chosen by
+	 * the PartSizePlanner, which learns from the part timings of each copy.
+	 */
+	public MultipartTransfer multipartCopyLLAPI(AmazonS3 svc, String dstbkt, String dstkey, String srcbkt,
+			String srckey) {
+		long objectSize = svc.getObjectMetadata(new GetObjectMetadataRequest(srcbkt, srckey)).getContentLength();
+		PartSizePlanner.Plan plan = partSizePlanner.plan(objectSize);
+		MultipartTransfer transfer = multipartCopyLLAPI(svc, dstbkt, dstkey, srcbkt, srckey, plan, partExecutor);
+		partSizePlanner.record(transfer);
+		return transfer;
+	}
+
+	/**
+	 * Same as multipartCopyLLAPI() but the copy-parts are issued concurrently on
+	 * the given executor. The returned MultipartTransfer carries the aggregate
+	 * server side copy throughput. The first failing part aborts the upload.
+	 */
+	public MultipartTransfer multipartCopyLLAPI(AmazonS3 svc, String dstbkt, String dstkey, String srcbkt,
+			String srckey, long size, ExecutorService executor) {
+		long objectSize = svc.getObjectMetadata(new GetObjectMetadataRequest(srcbkt, srckey)).getContentLength();
+		PartSizePlanner.Plan plan = partSizePlanner.fixed(objectSize, size, Integer.MAX_VALUE);
+		return multipartCopyLLAPI(svc, dstbkt, dstkey, srcbkt, srckey, plan, executor);
+	}
+
+	/**
+	 * Parallel copy following the given plan, whose object size must be the
+	 * size of the source object.
+	 */
+	public MultipartTransfer multipartCopyLLAPI(final AmazonS3 svc, String dstbkt, String dstkey, String srcbkt,
+			String srckey, PartSizePlanner.Plan plan, ExecutorService executor) {
+
+		trackBucket(dstbkt);
+		long objectSize = plan.getObjectSize();
+		long size = plan.getPartSize();
+		PartSizePlanner.checkPartCount(objectSize, size);
+
+		InitiateMultipartUploadRequest initiateRequest = new InitiateMultipartUploadRequest(dstbkt, dstkey);
+		String uploadId = svc.initiateMultipartUpload(initiateRequest).getUploadId();
+
+		List<Callable<CopyPartResult>> tasks = new ArrayList<Callable<CopyPartResult>>();
+		List<Long> partSizes = new ArrayList<Long>();
+		long bytePosition = 0;
+		int partNum = 1;
+		while (bytePosition < objectSize) {
+			long lastByte = Math.min(bytePosition + size - 1, objectSize - 1);
+			final CopyPartRequest copyRequest = new CopyPartRequest().withDestinationBucketName(dstbkt)
+					.withDestinationKey(dstkey).withSourceBucketName(srcbkt).withSourceKey(srckey)
+					.withUploadId(uploadId).withFirstByte(bytePosition).withLastByte(lastByte)
+					.withPartNumber(partNum++);
+			tasks.add(() -> svc.copyPart(copyRequest));
+			partSizes.add(lastByte - bytePosition + 1);
+			bytePosition += size;
+		}
+
+		long start = System.nanoTime();
+		long[] nanos = new long[tasks.size()];
+		List<CopyPartResult> results = runParts(svc, dstbkt, dstkey, uploadId, tasks, nanos, plan.getConcurrency(),
+				executor);
+		return newTransfer(new CompleteMultipartUploadRequest(dstbkt, dstkey, uploadId, GetETags(results)),
+				partSizes, nanos, System.nanoTime() - start);
+	}
+
 	static List<PartETag> GetETags(List<CopyPartResult> responses) {
 		List<PartETag> etags = new ArrayList<PartETag>();
 		for (CopyPartResult response : responses) {
@@ -382,8 +954,30 @@ public class S3 {
 		}
 	}
 
+	/*
+	 * One TransferManager per client, shared by all the HLAPI helpers, instead
+	 * of a new one (and a new thread pool) per call. They are shut down together
+	 * with the clients, without shutting down the client themselves.
+	 */
+	private final ConcurrentHashMap<AmazonS3, TransferManager> transferManagers = new ConcurrentHashMap<AmazonS3, TransferManager>();
+
+	public TransferManager getTransferManager(final AmazonS3 svc) {
+		return transferManagers.computeIfAbsent(svc, k -> {
+			final int threads = config.getTransferThreads();
+			return TransferManagerBuilder.standard().withS3Client(svc)
+					.withExecutorFactory(() -> ThreadPools
+							.inheritTestContext(ThreadPools.newExecutor("transfer", threads, useVirtualThreads)))
+					.withShutDownThreadPools(true)
+					.withMultipartUploadThreshold(config.getMultipartUploadThreshold())
+					.withMinimumUploadPartSize(config.getMinimumUploadPartSize())
+					.withMultipartCopyThreshold(config.getMultipartCopyThreshold())
+					.withMultipartCopyPartSize(config.getMultipartCopyPartSize()).build();
+		});
+	}
+
 	public Copy multipartCopyHLAPI(AmazonS3 svc, String dstbkt, String dstkey, String srcbkt, String srckey) {
-		TransferManager tm = TransferManagerBuilder.standard().withS3Client(svc).build();
+		trackBucket(dstbkt);
+		TransferManager tm = getTransferManager(svc);
 		Copy copy = tm.copy(srcbkt, srckey, dstbkt, dstkey);
 		try {
 			waitForCompletion(copy);
@@ -394,7 +988,7 @@ public class S3 {
 	}
 
 	public Download downloadHLAPI(AmazonS3 svc, String bucket, String key, File file) {
-		TransferManager tm = TransferManagerBuilder.standard().withS3Client(svc).build();
+		TransferManager tm = getTransferManager(svc);
 		Download download = tm.download(bucket, key, file);
 		try {
 			waitForCompletion(download);
@@ -405,7 +999,7 @@ public class S3 {
 	}
 
 	public MultipleFileDownload multipartDownloadHLAPI(AmazonS3 svc, String bucket, String key, File dstDir) {
-		TransferManager tm = TransferManagerBuilder.standard().withS3Client(svc).build();
+		TransferManager tm = getTransferManager(svc);
 		MultipleFileDownload download = tm.downloadDirectory(bucket, key, dstDir);
 		try {
 			waitForCompletion(download);
@@ -416,8 +1010,8 @@ public class S3 {
 	}
 
 	public Upload UploadFileHLAPI(AmazonS3 svc, String bucket, String key, String filePath) {
-		TransferManager tm = TransferManagerBuilder.standard().withS3Client(svc)
-				.build();
+		trackBucket(bucket);
+		TransferManager tm = getTransferManager(svc);
 		Upload upload = tm.upload(bucket, key, new File(filePath));
 		try {
 			waitForCompletion(upload);
@@ -430,7 +1024,8 @@ public class S3 {
 	public Transfer multipartUploadHLAPI(AmazonS3 svc, String bucket, String s3target, String directory)
 			throws AmazonServiceException, AmazonClientException, InterruptedException {
 
-		TransferManager tm = TransferManagerBuilder.standard().withS3Client(svc).build();
+		trackBucket(bucket);
+		TransferManager tm = getTransferManager(svc);
 		Transfer t = tm.uploadDirectory(bucket, s3target, new File(directory), false);
 		try {
 			waitForCompletion(t);
@@ -440,21 +1035,60 @@ public class S3 {
 		return t;
 	}
 
-	public void createFile(String fname, int size) {
-		Random rand = new Random();
-		byte[] myByteArray = new byte[size];
-		rand.nextBytes(myByteArray);
-		try {
-			File f = new File(fname);
-			if (f.exists() && !f.isDirectory()) {
-				f.delete();
+	static final long DEFAULT_FILE_SEED = 0x5eedL;
+	private static final int FILE_BLOCK_SIZE = 1024 * 1024;
+
+	public void createFile(String fname, long size) {
+		createFile(fname, size, DEFAULT_FILE_SEED);
+	}
+
+	/**
+	 * Writes size bytes of SyntheticObjectStream content for seed to fname. The
+	 * data is generated block by block into one reusable buffer, so the memory
+	 * used does not depend on the file size. If the file was already
+	 * generated with the same size and seed, and has not been touched since, it
+	 * is left as is.
+	 */
+	public synchronized void createFile(String fname, long size, long seed) {
+		File f = new File(fname);
+		File marker = new File(f.getParentFile(), "." + f.getName() + ".seed");
+		if (f.isFile() && f.length() == size && marker.isFile()) {
+			try {
+				String expected = String.format("%d %d %d", seed, size, f.lastModified());
+				if (expected.equals(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.US_ASCII))) {
+					return;
+				}
+			} catch (IOException e) {
+
 			}
-			FileOutputStream fos = new FileOutputStream(fname);
-			fos.write(myByteArray);
-		} catch (FileNotFoundException e) {
+		}
 
+		File tmp = new File(fname + ".tmp");
+		byte[] block = new byte[FILE_BLOCK_SIZE];
+		ByteBuffer buf = ByteBuffer.wrap(block);
+		try (InputStream data = new SyntheticObjectStream(seed, size);
+				FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			int n;
+			while ((n = data.read(block, 0, block.length)) != -1) {
+				buf.clear();
+				buf.limit(n);
+				while (buf.hasRemaining()) {
+					channel.write(buf);
+				}
+			}
 		} catch (IOException e) {
+			logger.warn(String.format("Could not create %s: %s", fname, e.getMessage()));
+			tmp.delete();
+			return;
+		}
 
+		try {
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.write(marker.toPath(),
+					String.format("%d %d %d", seed, size, f.lastModified()).getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			logger.warn(String.format("Could not create %s: %s", fname, e.getMessage()));
 		}
 	}
 }
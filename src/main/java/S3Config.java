@@ -0,0 +1,399 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import com.amazonaws.ClientConfiguration;
+
+/**
+ * The settings from config.properties, read once and parsed into typed,
+ * immutable values, so S3 and everything built on it can share them between
+ * threads without locking. See README.md and config.properties.sample for the
+ * keys; absent keys take the defaults below.
+ */
+public final class S3Config {
+
+	public static final String DEFAULT_FILE = "config.properties";
+
+	private static class Holder {
+		static final S3Config INSTANCE = load(DEFAULT_FILE);
+	}
+
+	/**
+	 * The configuration from config.properties in the working directory,
+	 * loaded on first use.
+	 */
+	public static S3Config get() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Reads the given file. A missing or unreadable file is logged and yields
+	 * the defaults, as the suite has always done.
+	 */
+	public static S3Config load(String file) {
+		Properties prop = new Properties();
+		try (InputStream input = new FileInputStream(file)) {
+			prop.load(input);
+		} catch (IOException e) {
+			S3.logger.warn(String.format("Could not read %s: %s", file, e));
+		}
+		return new S3Config(prop);
+	}
+
+	// connection and credentials
+	private final String endpoint;
+	private final String region;
+	private final String accessKey;
+	private final String accessSecret;
+	private final String displayName;
+	private final boolean secure;
+	private final String bucketPrefix;
+
+	// sharding, usually set per JVM with -Dshard_index and -Dshard_count
+	private final int shardIndex;
+	private final int shardCount;
+
+	// client tuning
+	private final int maxConnections;
+	private final long connectionMaxIdleMillis;
+	private final long connectionTtlMillis;
+	private final boolean tcpKeepAlive;
+	private final int socketSendBufferSize;
+	private final int socketReceiveBufferSize;
+	private final boolean useExpectContinue;
+	private final boolean useGzip;
+
+	// retries
+	private final int maxErrorRetry;
+	private final long retryBaseDelayMillis;
+	private final long retryThrottledBaseDelayMillis;
+	private final long retryMaxDelayMillis;
+
+	// metrics
+	private final String latencyLog;
+	private final long latencyLogIntervalMillis;
+	private final String timingReport;
+
+	// stand-in and shaping proxy
+	private final boolean standIn;
+	private final int standInPort;
+	private final int standInThreads;
+	private final boolean shapingProxy;
+	private final int shapingProxyPort;
+	private final String shapingProxyLatencyMillis;
+	private final String shapingProxySlowdown;
+	private final String shapingProxyReset;
+	private final long shapingProxyBandwidth;
+	private final long shapingProxySeed;
+
+	// teardown
+	private final long teardownRetryBaseMillis;
+	private final long teardownRetryMaxMillis;
+	private final long teardownRetryBudgetMillis;
+	private final int teardownThreads;
+	private final boolean asyncTeardown;
+
+	// multipart and transfers
+	private final boolean virtualThreads;
+	private final int multipartThreads;
+	private final long multipartPartSize;
+	private final long multipartInflightBytes;
+	private final long multipartTargetPartMillis;
+	private final int transferThreads;
+	private final long multipartUploadThreshold;
+	private final long minimumUploadPartSize;
+	private final long multipartCopyThreshold;
+	private final long multipartCopyPartSize;
+
+	public S3Config(Properties prop) {
+		endpoint = string(prop, "endpoint", null);
+		region = string(prop, "region", null);
+		accessKey = string(prop, "access_key", null);
+		accessSecret = string(prop, "access_secret", null);
+		displayName = string(prop, "display_name", "");
+		secure = bool(prop, "is_secure", false);
+		bucketPrefix = string(prop, "bucket_prefix", "test-");
+		shardCount = Integer.getInteger("shard_count", integer(prop, "shard_count", 1));
+		shardIndex = Integer.getInteger("shard_index", integer(prop, "shard_index", 0));
+		if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+			// TestNG reports only "error instantiating class" for this, so log it
+			String message = String.format("Invalid shard %d of %d, need 0 <= shard_index < shard_count",
+					shardIndex, shardCount);
+			S3.logger.error(message);
+			throw new IllegalArgumentException(message);
+		}
+
+		maxConnections = integer(prop, "max_connections", ClientConfiguration.DEFAULT_MAX_CONNECTIONS);
+		connectionMaxIdleMillis = number(prop, "connection_max_idle_millis", 1 * 1000);
+		connectionTtlMillis = number(prop, "connection_ttl_millis", ClientConfiguration.DEFAULT_CONNECTION_TTL);
+		tcpKeepAlive = bool(prop, "tcp_keep_alive", ClientConfiguration.DEFAULT_TCP_KEEP_ALIVE);
+		socketSendBufferSize = integer(prop, "socket_send_buffer_size", 0);
+		socketReceiveBufferSize = integer(prop, "socket_receive_buffer_size", 0);
+		useExpectContinue = bool(prop, "use_expect_continue", ClientConfiguration.DEFAULT_USE_EXPECT_CONTINUE);
+		useGzip = bool(prop, "use_gzip", ClientConfiguration.DEFAULT_USE_GZIP);
+
+		maxErrorRetry = integer(prop, "max_error_retry", 4);
+		retryBaseDelayMillis = number(prop, "retry_base_delay_millis", 100);
+		retryThrottledBaseDelayMillis = number(prop, "retry_throttled_base_delay_millis", 500);
+		retryMaxDelayMillis = number(prop, "retry_max_delay_millis", 20 * 1000);
+
+		latencyLog = string(prop, "latency_log", "");
+		latencyLogIntervalMillis = number(prop, "latency_log_interval_millis", 10 * 1000);
+		timingReport = string(prop, "timing_report", "build/reports/test-timings");
+
+		standIn = bool(prop, "standin", false);
+		standInPort = integer(prop, "standin_port", 0);
+		standInThreads = integer(prop, "standin_threads", 64);
+		shapingProxy = bool(prop, "shaping_proxy", false);
+		shapingProxyPort = integer(prop, "shaping_proxy_port", 0);
+		shapingProxyLatencyMillis = string(prop, "shaping_proxy_latency_millis", "");
+		shapingProxySlowdown = string(prop, "shaping_proxy_slowdown", "");
+		shapingProxyReset = string(prop, "shaping_proxy_reset", "");
+		shapingProxyBandwidth = number(prop, "shaping_proxy_bandwidth", 0);
+		shapingProxySeed = number(prop, "shaping_proxy_seed", 42);
+
+		teardownRetryBaseMillis = number(prop, "teardown_retry_base_millis", 50);
+		teardownRetryMaxMillis = number(prop, "teardown_retry_max_millis", 2000);
+		teardownRetryBudgetMillis = number(prop, "teardown_retry_budget_millis", 30000);
+		teardownThreads = integer(prop, "teardown_threads", 8);
+		asyncTeardown = bool(prop, "async_teardown", false);
+
+		virtualThreads = bool(prop, "virtual_threads", false);
+		multipartThreads = integer(prop, "multipart_threads", 8);
+		multipartPartSize = number(prop, "multipart_part_size", 8 * 1024 * 1024);
+		multipartInflightBytes = number(prop, "multipart_inflight_bytes", 64 * 1024 * 1024);
+		multipartTargetPartMillis = number(prop, "multipart_target_part_millis", 1000);
+		transferThreads = integer(prop, "transfer_threads", 10);
+		multipartUploadThreshold = number(prop, "multipart_upload_threshold", 16 * 1024 * 1024);
+		minimumUploadPartSize = number(prop, "minimum_upload_part_size", 5 * 1024 * 1024);
+		multipartCopyThreshold = number(prop, "multipart_copy_threshold", 5L * 1024 * 1024 * 1024);
+		multipartCopyPartSize = number(prop, "multipart_copy_part_size", 100 * 1024 * 1024);
+	}
+
+	private static String string(Properties prop, String name, String defaultValue) {
+		String value = prop.getProperty(name);
+		return value == null ? defaultValue : value.trim();
+	}
+
+	private static int integer(Properties prop, String name, int defaultValue) {
+		String value = prop.getProperty(name);
+		return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private static long number(Properties prop, String name, long defaultValue) {
+		String value = prop.getProperty(name);
+		return value == null || value.trim().isEmpty() ? defaultValue : Long.parseLong(value.trim());
+	}
+
+	private static boolean bool(Properties prop, String name, boolean defaultValue) {
+		String value = prop.getProperty(name);
+		return value == null || value.trim().isEmpty() ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	public String getAccessKey() {
+		return accessKey;
+	}
+
+	public String getAccessSecret() {
+		return accessSecret;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	public boolean isSecure() {
+		return secure;
+	}
+
+	public String getBucketPrefix() {
+		return bucketPrefix;
+	}
+
+	/**
+	 * The shard of the suite this JVM runs, from 0 to getShardCount() - 1.
+	 */
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public long getConnectionMaxIdleMillis() {
+		return connectionMaxIdleMillis;
+	}
+
+	public long getConnectionTtlMillis() {
+		return connectionTtlMillis;
+	}
+
+	public boolean isTcpKeepAlive() {
+		return tcpKeepAlive;
+	}
+
+	public int getSocketSendBufferSize() {
+		return socketSendBufferSize;
+	}
+
+	public int getSocketReceiveBufferSize() {
+		return socketReceiveBufferSize;
+	}
+
+	public boolean isUseExpectContinue() {
+		return useExpectContinue;
+	}
+
+	public boolean isUseGzip() {
+		return useGzip;
+	}
+
+	public int getMaxErrorRetry() {
+		return maxErrorRetry;
+	}
+
+	public long getRetryBaseDelayMillis() {
+		return retryBaseDelayMillis;
+	}
+
+	public long getRetryThrottledBaseDelayMillis() {
+		return retryThrottledBaseDelayMillis;
+	}
+
+	public long getRetryMaxDelayMillis() {
+		return retryMaxDelayMillis;
+	}
+
+	/**
+	 * The HdrHistogram log file, empty when no log is written.
+	 */
+	public String getLatencyLog() {
+		return latencyLog;
+	}
+
+	public long getLatencyLogIntervalMillis() {
+		return latencyLogIntervalMillis;
+	}
+
+	/**
+	 * Where the suite writes its per-test timings, without the .json and .txt
+	 * extensions; empty when no report is written.
+	 */
+	public String getTimingReport() {
+		return timingReport;
+	}
+
+	public boolean isStandIn() {
+		return standIn;
+	}
+
+	public int getStandInPort() {
+		return standInPort;
+	}
+
+	public int getStandInThreads() {
+		return standInThreads;
+	}
+
+	public boolean isShapingProxy() {
+		return shapingProxy;
+	}
+
+	public int getShapingProxyPort() {
+		return shapingProxyPort;
+	}
+
+	public String getShapingProxyLatencyMillis() {
+		return shapingProxyLatencyMillis;
+	}
+
+	public String getShapingProxySlowdown() {
+		return shapingProxySlowdown;
+	}
+
+	public String getShapingProxyReset() {
+		return shapingProxyReset;
+	}
+
+	public long getShapingProxyBandwidth() {
+		return shapingProxyBandwidth;
+	}
+
+	public long getShapingProxySeed() {
+		return shapingProxySeed;
+	}
+
+	public long getTeardownRetryBaseMillis() {
+		return teardownRetryBaseMillis;
+	}
+
+	public long getTeardownRetryMaxMillis() {
+		return teardownRetryMaxMillis;
+	}
+
+	public long getTeardownRetryBudgetMillis() {
+		return teardownRetryBudgetMillis;
+	}
+
+	public int getTeardownThreads() {
+		return teardownThreads;
+	}
+
+	public boolean isAsyncTeardown() {
+		return asyncTeardown;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public int getMultipartThreads() {
+		return multipartThreads;
+	}
+
+	public long getMultipartPartSize() {
+		return multipartPartSize;
+	}
+
+	public long getMultipartInflightBytes() {
+		return multipartInflightBytes;
+	}
+
+	public long getMultipartTargetPartMillis() {
+		return multipartTargetPartMillis;
+	}
+
+	public int getTransferThreads() {
+		return transferThreads;
+	}
+
+	public long getMultipartUploadThreshold() {
+		return multipartUploadThreshold;
+	}
+
+	public long getMinimumUploadPartSize() {
+		return minimumUploadPartSize;
+	}
+
+	public long getMultipartCopyThreshold() {
+		return multipartCopyThreshold;
+	}
+
+	public long getMultipartCopyPartSize() {
+		return multipartCopyPartSize;
+	}
+}
@@ -0,0 +1,115 @@
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps a raw path-style S3 HTTP request to the name of the S3 operation it
+ * performs, using the same names the SDK reports (PutObject, UploadPart,
+ * CopyPart, ListObjectsV2, ...), so metrics taken on the wire line up with
+ * the ones taken in the client.
+ */
+public class S3Operations {
+
+	/**
+	 * Splits a decoded path-style request path into bucket and key. Both are
+	 * empty strings when absent.
+	 */
+	public static String[] splitPath(String path) {
+		String p = path.startsWith("/") ? path.substring(1) : path;
+		int slash = p.indexOf('/');
+		if (slash < 0) {
+			return new String[] { p, "" };
+		}
+		return new String[] { p.substring(0, slash), p.substring(slash + 1) };
+	}
+
+	/**
+	 * Decodes a raw query string. Parameters without a value (?uploads) map to
+	 * the empty string.
+	 */
+	public static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> query = new LinkedHashMap<String, String>();
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return query;
+		}
+		for (String param : rawQuery.split("&")) {
+			int eq = param.indexOf('=');
+			String name = eq < 0 ? param : param.substring(0, eq);
+			String value = eq < 0 ? "" : param.substring(eq + 1);
+			query.put(decode(name), decode(value));
+		}
+		return query;
+	}
+
+	private static String decode(String s) {
+		try {
+			return URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String classify(String method, String bucket, String key, Map<String, String> query,
+			boolean hasCopySource) {
+		if (bucket.isEmpty()) {
+			return "GET".equals(method) ? "ListBuckets" : "Unknown";
+		}
+		if (key.isEmpty()) {
+			switch (method) {
+			case "PUT":
+				return query.containsKey("acl") ? "SetBucketAcl" : "CreateBucket";
+			case "DELETE":
+				return "DeleteBucket";
+			case "HEAD":
+				return "HeadBucket";
+			case "POST":
+				return query.containsKey("delete") ? "DeleteObjects" : "Unknown";
+			case "GET":
+				if (query.containsKey("acl")) {
+					return "GetBucketAcl";
+				} else if (query.containsKey("location")) {
+					return "GetBucketLocation";
+				} else if (query.containsKey("versions")) {
+					return "ListVersions";
+				} else if (query.containsKey("uploads")) {
+					return "ListMultipartUploads";
+				} else if ("2".equals(query.get("list-type"))) {
+					return "ListObjectsV2";
+				}
+				return "ListObjects";
+			default:
+				return "Unknown";
+			}
+		}
+		switch (method) {
+		case "PUT":
+			if (query.containsKey("uploadId")) {
+				return hasCopySource ? "CopyPart" : "UploadPart";
+			} else if (query.containsKey("acl")) {
+				return "SetObjectAcl";
+			}
+			return hasCopySource ? "CopyObject" : "PutObject";
+		case "GET":
+			if (query.containsKey("uploadId")) {
+				return "ListParts";
+			} else if (query.containsKey("acl")) {
+				return "GetObjectAcl";
+			}
+			return "GetObject";
+		case "HEAD":
+			return "GetObjectMetadata";
+		case "DELETE":
+			return query.containsKey("uploadId") ? "AbortMultipartUpload" : "DeleteObject";
+		case "POST":
+			if (query.containsKey("uploads")) {
+				return "InitiateMultipartUpload";
+			} else if (query.containsKey("uploadId")) {
+				return "CompleteMultipartUpload";
+			}
+			return "Unknown";
+		default:
+			return "Unknown";
+		}
+	}
+}
@@ -0,0 +1,54 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+
+/**
+ * Retry policy for the clients handed out by S3.getS3Client().
+ *
+ * Retries the same errors as the SDK default policy, but with a capped number
+ * of attempts and "full jitter" backoff: the delay is drawn uniformly between
+ * zero and an exponentially growing ceiling. Throttling responses (503
+ * SlowDown and friends) start from a larger base delay, since retrying them
+ * quickly only adds load to a gateway that is already shedding it.
+ */
+public class S3RetryPolicy {
+
+	public static RetryPolicy create(int maxErrorRetry, long baseDelayMillis, long throttledBaseDelayMillis,
+			long maxDelayMillis) {
+		return new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+				new FullJitterBackoff(baseDelayMillis, throttledBaseDelayMillis, maxDelayMillis), maxErrorRetry, true);
+	}
+
+	static boolean isThrottled(Throwable e) {
+		if (!(e instanceof AmazonServiceException)) {
+			return false;
+		}
+		AmazonServiceException ase = (AmazonServiceException) e;
+		return RetryUtils.isThrottlingException(ase) || ase.getStatusCode() == 503;
+	}
+
+	static class FullJitterBackoff implements RetryPolicy.BackoffStrategy {
+
+		private final long baseDelayMillis;
+		private final long throttledBaseDelayMillis;
+		private final long maxDelayMillis;
+
+		FullJitterBackoff(long baseDelayMillis, long throttledBaseDelayMillis, long maxDelayMillis) {
+			this.baseDelayMillis = baseDelayMillis;
+			this.throttledBaseDelayMillis = throttledBaseDelayMillis;
+			this.maxDelayMillis = maxDelayMillis;
+		}
+
+		public long delayBeforeNextRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception,
+				int retriesAttempted) {
+			long base = isThrottled(exception) ? throttledBaseDelayMillis : baseDelayMillis;
+			long ceiling = Math.min(maxDelayMillis, base << Math.min(retriesAttempted, 30));
+			return ThreadLocalRandom.current().nextLong(ceiling + 1);
+		}
+	}
+}
@@ -0,0 +1,1019 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.amazonaws.util.IOUtils;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process, in-memory stand-in for an S3 gateway, so the suite and the load
+ * generator can run on hosts without an RGW.
+ *
+ * It serves path-style requests on a local port using the JDK's NIO based
+ * HttpServer: bucket create/delete/list, object PUT/GET (ranged)/HEAD/DELETE,
+ * multi-object delete, copy, multipart upload including part copy, and
+ * ListObjects v1/v2 and version listings (every object is its only, "null",
+ * version). ETags are MD5s, and md5-of-part-md5s-N for multipart objects, like
+ * S3 and RGW compute them.
+ *
+ * Any SigV2 or SigV4 signature is accepted without being checked, including
+ * aws-chunked (streaming SigV4) bodies, so tests that expect
+ * SignatureDoesNotMatch fail against it. Request time skew and Content-MD5
+ * are checked.
+ */
+public class S3StandIn {
+
+	static final String XMLNS = "http://s3.amazonaws.com/doc/2006-03-01/";
+	static final long MAX_SKEW_MILLIS = 15 * 60 * 1000;
+
+	static final DateTimeFormatter ISO8601 = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+			.withZone(ZoneOffset.UTC);
+	static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+			.withZone(ZoneOffset.UTC);
+
+	// request headers that are stored with an object and returned on GET/HEAD
+	static final Set<String> STORED_HEADERS = new HashSet<String>(Arrays.asList("content-type",
+			"content-disposition", "content-encoding", "content-language", "cache-control", "expires",
+			"x-amz-server-side-encryption", "x-amz-server-side-encryption-aws-kms-key-id",
+			"x-amz-server-side-encryption-customer-algorithm", "x-amz-server-side-encryption-customer-key-md5",
+			"x-amz-storage-class", "x-amz-website-redirect-location"));
+
+	static class StoredObject {
+		final byte[] data;
+		final String etag;
+		final long lastModified = System.currentTimeMillis();
+		final Map<String, String> headers;
+
+		StoredObject(byte[] data, String etag, Map<String, String> headers) {
+			this.data = data;
+			this.etag = etag;
+			this.headers = headers;
+		}
+	}
+
+	static class Bucket {
+		final String name;
+		final long created = System.currentTimeMillis();
+		final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<String, StoredObject>();
+		// set under the bucket's lock once DeleteBucket removed it
+		boolean deleted;
+
+		Bucket(String name) {
+			this.name = name;
+		}
+
+		/*
+		 * Stores an object unless the bucket was deleted meanwhile; locks
+		 * against DeleteBucket so an object is never stored into a bucket that
+		 * is already gone.
+		 */
+		synchronized void put(String key, StoredObject o) {
+			if (deleted) {
+				throw new S3Error(404, "NoSuchBucket", "The specified bucket does not exist");
+			}
+			objects.put(key, o);
+		}
+	}
+
+	static class Upload {
+		final String id = UUID.randomUUID().toString();
+		final String bucket;
+		final String key;
+		final long initiated = System.currentTimeMillis();
+		final Map<String, String> headers;
+		final ConcurrentSkipListMap<Integer, StoredObject> parts = new ConcurrentSkipListMap<Integer, StoredObject>();
+
+		Upload(String bucket, String key, Map<String, String> headers) {
+			this.bucket = bucket;
+			this.key = key;
+			this.headers = headers;
+		}
+	}
+
+	static class S3Error extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final int status;
+		final String code;
+
+		S3Error(int status, String code, String message) {
+			super(message);
+			this.status = status;
+			this.code = code;
+		}
+	}
+
+	/*
+	 * One entry of a listing: an object or a common prefix.
+	 */
+	static class Listing {
+		final List<Map.Entry<String, StoredObject>> contents = new ArrayList<Map.Entry<String, StoredObject>>();
+		final List<String> commonPrefixes = new ArrayList<String>();
+		boolean truncated;
+		String last;
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final String ownerId;
+	private final String ownerName;
+	private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+	private final ConcurrentHashMap<String, Upload> uploads = new ConcurrentHashMap<String, Upload>();
+
+	/**
+	 * Starts serving on 127.0.0.1:port, port 0 picks a free one.
+	 */
+	public S3StandIn(int port, int threads, boolean useVirtualThreads, String ownerId, String ownerName)
+			throws IOException {
+		this.ownerId = ownerId;
+		this.ownerName = ownerName;
+		executor = ThreadPools.newExecutor("standin", threads, useVirtualThreads);
+		// HttpServer writes the response headers and body separately; without
+		// TCP_NODELAY every small response waits out the client's delayed ACK
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+		S3.logger.info(String.format("S3 stand-in listening on %s", getEndpoint()));
+	}
+
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange ex) throws IOException {
+		try {
+			String[] path = S3Operations.splitPath(ex.getRequestURI().getPath());
+			String bucket = path[0];
+			String key = path[1];
+			Map<String, String> query = S3Operations.parseQuery(ex.getRequestURI().getRawQuery());
+			Headers h = ex.getRequestHeaders();
+			String operation = S3Operations.classify(ex.getRequestMethod(), bucket, key, query,
+					h.containsKey("x-amz-copy-source"));
+			checkRequestTime(h);
+
+			switch (operation) {
+			case "ListBuckets":
+				listBuckets(ex);
+				break;
+			case "CreateBucket":
+				buckets.putIfAbsent(bucket, new Bucket(bucket));
+				ex.getResponseHeaders().set("Location", "/" + bucket);
+				sendResponseHeaders(ex, 200, -1);
+				break;
+			case "DeleteBucket":
+				bucket(bucket);
+				buckets.computeIfPresent(bucket, (name, b) -> {
+					synchronized (b) {
+						if (!b.objects.isEmpty()) {
+							throw new S3Error(409, "BucketNotEmpty", "The bucket you tried to delete is not empty");
+						}
+						b.deleted = true;
+						return null;
+					}
+				});
+				sendResponseHeaders(ex, 204, -1);
+				break;
+			case "HeadBucket":
+				bucket(bucket);
+				sendResponseHeaders(ex, 200, -1);
+				break;
+			case "GetBucketAcl":
+			case "GetObjectAcl":
+				bucket(bucket);
+				sendXml(ex, 200, acl());
+				break;
+			case "SetBucketAcl":
+			case "SetObjectAcl":
+				bucket(bucket);
+				sendResponseHeaders(ex, 200, -1);
+				break;
+			case "GetBucketLocation":
+				bucket(bucket);
+				sendXml(ex, 200, "<LocationConstraint xmlns=\"" + XMLNS + "\"></LocationConstraint>");
+				break;
+			case "ListObjects":
+			case "ListObjectsV2":
+			case "ListVersions":
+				list(ex, operation, bucket(bucket), query);
+				break;
+			case "ListMultipartUploads":
+				listUploads(ex, bucket(bucket));
+				break;
+			case "DeleteObjects":
+				deleteObjects(ex, bucket(bucket));
+				break;
+			case "PutObject":
+				putObject(ex, bucket(bucket), key);
+				break;
+			case "CopyObject":
+				copyObject(ex, bucket(bucket), key);
+				break;
+			case "GetObject":
+			case "GetObjectMetadata":
+				getObject(ex, bucket(bucket), key, query, operation.equals("GetObjectMetadata"));
+				break;
+			case "DeleteObject":
+				bucket(bucket).objects.remove(key);
+				sendResponseHeaders(ex, 204, -1);
+				break;
+			case "InitiateMultipartUpload":
+				initiateUpload(ex, bucket(bucket), key);
+				break;
+			case "UploadPart":
+			case "CopyPart":
+				uploadPart(ex, upload(bucket, key, query), query, operation.equals("CopyPart"));
+				break;
+			case "ListParts":
+				listParts(ex, upload(bucket, key, query));
+				break;
+			case "CompleteMultipartUpload":
+				completeUpload(ex, upload(bucket, key, query));
+				break;
+			case "AbortMultipartUpload":
+				uploads.remove(upload(bucket, key, query).id);
+				sendResponseHeaders(ex, 204, -1);
+				break;
+			default:
+				throw new S3Error(501, "NotImplemented", ex.getRequestMethod() + " " + ex.getRequestURI());
+			}
+		} catch (S3Error e) {
+			sendError(ex, e);
+		} catch (RuntimeException e) {
+			S3.logger.warn(String.format("S3 stand-in failed on %s %s", ex.getRequestMethod(), ex.getRequestURI()),
+					e);
+			sendError(ex, new S3Error(500, "InternalError", String.valueOf(e)));
+		} finally {
+			ex.close();
+		}
+	}
+
+	/*
+	 * HttpServer closes the connection, without a Connection: close header,
+	 * when a response completes before the request body was read to the end,
+	 * and the client then fails on its next request over it. So whatever the
+	 * handler left of the body is read before answering.
+	 */
+	private static void sendResponseHeaders(HttpExchange ex, int status, long length) throws IOException {
+		IOUtils.drainInputStream(ex.getRequestBody());
+		ex.sendResponseHeaders(status, length);
+	}
+
+	private Bucket bucket(String name) {
+		Bucket b = buckets.get(name);
+		if (b == null) {
+			throw new S3Error(404, "NoSuchBucket", "The specified bucket does not exist");
+		}
+		return b;
+	}
+
+	private Upload upload(String bucket, String key, Map<String, String> query) {
+		bucket(bucket);
+		Upload u = uploads.get(query.get("uploadId"));
+		if (u == null || !u.bucket.equals(bucket) || !u.key.equals(key)) {
+			throw new S3Error(404, "NoSuchUpload", "The specified upload does not exist");
+		}
+		return u;
+	}
+
+	private void checkRequestTime(Headers h) {
+		String value = h.getFirst("x-amz-date");
+		if (value == null) {
+			value = h.getFirst("Date");
+		}
+		if (value == null) {
+			return;
+		}
+		long time;
+		try {
+			time = Instant.from(AMZ_DATE.parse(value)).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			try {
+				time = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			} catch (DateTimeParseException e2) {
+				throw new S3Error(403, "AccessDenied", "AWS authentication requires a valid Date or x-amz-date header");
+			}
+		}
+		if (Math.abs(System.currentTimeMillis() - time) > MAX_SKEW_MILLIS) {
+			throw new S3Error(403, "RequestTimeTooSkewed",
+					"The difference between the request time and the current time is too large");
+		}
+	}
+
+	// objects
+
+	private void putObject(HttpExchange ex, Bucket bucket, String key) throws IOException {
+		checkEncryption(ex.getRequestHeaders());
+		byte[] data = readBody(ex);
+		StoredObject o = new StoredObject(data, md5Hex(data), storedHeaders(ex.getRequestHeaders()));
+		bucket.put(key, o);
+		ex.getResponseHeaders().set("ETag", quote(o.etag));
+		echoEncryption(ex, o.headers);
+		sendResponseHeaders(ex, 200, -1);
+	}
+
+	/*
+	 * The SSE-C and SSE-KMS header combinations RGW rejects, with its messages.
+	 */
+	private static void checkEncryption(Headers h) {
+		String algorithm = h.getFirst("x-amz-server-side-encryption-customer-algorithm");
+		String customerKey = h.getFirst("x-amz-server-side-encryption-customer-key");
+		String customerKeyMd5 = h.getFirst("x-amz-server-side-encryption-customer-key-MD5");
+		if (algorithm != null || customerKey != null || customerKeyMd5 != null) {
+			if (!"AES256".equals(algorithm)) {
+				throw new S3Error(400, "InvalidArgument",
+						"Requests specifying Server Side Encryption with Customer provided keys must provide a valid encryption algorithm.");
+			}
+			byte[] key;
+			try {
+				key = customerKey == null ? new byte[0] : Base64.getDecoder().decode(customerKey);
+			} catch (IllegalArgumentException e) {
+				key = new byte[0];
+			}
+			if (key.length != 32) {
+				throw new S3Error(400, "InvalidArgument",
+						"Requests specifying Server Side Encryption with Customer provided keys must provide an appropriate secret key.");
+			}
+			if (customerKeyMd5 == null) {
+				throw new S3Error(400, "InvalidArgument",
+						"Requests specifying Server Side Encryption with Customer provided keys must provide an appropriate secret key md5.");
+			}
+			if (!Base64.getEncoder().encodeToString(md5().digest(key)).equals(customerKeyMd5)) {
+				throw new S3Error(400, "InvalidDigest",
+						"The calculated MD5 hash of the key did not match the hash that was provided.");
+			}
+		}
+		String sse = h.getFirst("x-amz-server-side-encryption");
+		String kmsKey = h.getFirst("x-amz-server-side-encryption-aws-kms-key-id");
+		if ("aws:kms".equals(sse) && kmsKey == null) {
+			throw new S3Error(400, "InvalidArgument", "Server Side Encryption with KMS managed key requires HTTP header x-amz-server-side-encryption-aws-kms-key-id");
+		}
+		if (kmsKey != null && !"aws:kms".equals(sse)) {
+			throw new S3Error(400, "InvalidArgument", "Server Side Encryption with KMS managed key requires HTTP header x-amz-server-side-encryption : aws:kms");
+		}
+	}
+
+	private void copyObject(HttpExchange ex, Bucket bucket, String key) throws IOException {
+		Headers h = ex.getRequestHeaders();
+		StoredObject src = copySource(h);
+		Map<String, String> headers = "REPLACE".equalsIgnoreCase(h.getFirst("x-amz-metadata-directive"))
+				? storedHeaders(h) : new LinkedHashMap<String, String>(src.headers);
+		StoredObject o = new StoredObject(src.data, src.etag, headers);
+		bucket.put(key, o);
+		echoEncryption(ex, o.headers);
+		sendXml(ex, 200, "<CopyObjectResult xmlns=\"" + XMLNS + "\">" + element("LastModified", iso(o.lastModified))
+				+ element("ETag", quote(o.etag)) + "</CopyObjectResult>");
+	}
+
+	private StoredObject copySource(Headers h) {
+		String source = decodePath(h.getFirst("x-amz-copy-source"));
+		int q = source.indexOf('?');
+		if (q >= 0) {
+			source = source.substring(0, q);
+		}
+		String[] path = S3Operations.splitPath(source);
+		StoredObject src = bucket(path[0]).objects.get(path[1]);
+		if (src == null) {
+			throw new S3Error(404, "NoSuchKey", "The specified key does not exist");
+		}
+		return src;
+	}
+
+	private void getObject(HttpExchange ex, Bucket bucket, String key, Map<String, String> query, boolean head)
+			throws IOException {
+		StoredObject o = bucket.objects.get(key);
+		if (o == null) {
+			throw new S3Error(404, "NoSuchKey", "The specified key does not exist");
+		}
+		Headers h = ex.getRequestHeaders();
+		String keyMd5 = o.headers.get("x-amz-server-side-encryption-customer-key-md5");
+		if (keyMd5 != null && !keyMd5.equals(h.getFirst("x-amz-server-side-encryption-customer-key-MD5"))) {
+			throw new S3Error(400, "InvalidRequest",
+					"The object was stored using a form of Server Side Encryption. The correct parameters must be provided to retrieve the object.");
+		}
+		String ifMatch = h.getFirst("If-Match");
+		if (ifMatch != null && !unquote(ifMatch).equals(o.etag)) {
+			throw new S3Error(412, "PreconditionFailed", "At least one of the preconditions you specified did not hold");
+		}
+		String ifNoneMatch = h.getFirst("If-None-Match");
+		if (ifNoneMatch != null && unquote(ifNoneMatch).equals(o.etag)) {
+			ex.getResponseHeaders().set("ETag", quote(o.etag));
+			sendResponseHeaders(ex, 304, -1);
+			return;
+		}
+
+		Headers rh = ex.getResponseHeaders();
+		for (Map.Entry<String, String> e : o.headers.entrySet()) {
+			rh.set(e.getKey(), e.getValue());
+		}
+		for (Map.Entry<String, String> e : query.entrySet()) {
+			// response-content-type=... overrides Content-Type etc.
+			if (e.getKey().startsWith("response-")) {
+				rh.set(e.getKey().substring("response-".length()), e.getValue());
+			}
+		}
+		rh.set("ETag", quote(o.etag));
+		rh.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+				ZonedDateTime.ofInstant(Instant.ofEpochMilli(o.lastModified), ZoneOffset.UTC)));
+		rh.set("Accept-Ranges", "bytes");
+
+		int start = 0;
+		int end = o.data.length - 1;
+		int status = 200;
+		String range = h.getFirst("Range");
+		if (range != null) {
+			long[] r = parseRange(range, o.data.length);
+			if (r == null) {
+				throw new S3Error(416, "InvalidRange", "The requested range is not satisfiable");
+			}
+			start = (int) r[0];
+			end = (int) r[1];
+			status = 206;
+			rh.set("Content-Range", String.format("bytes %d-%d/%d", start, end, o.data.length));
+		}
+		int length = end - start + 1;
+		if (head) {
+			rh.set("Content-Length", Integer.toString(length));
+			sendResponseHeaders(ex, status, -1);
+			return;
+		}
+		sendResponseHeaders(ex, status, length == 0 ? -1 : length);
+		if (length > 0) {
+			try (OutputStream out = ex.getResponseBody()) {
+				out.write(o.data, start, length);
+			}
+		}
+	}
+
+	/*
+	 * Returns the inclusive [first, last] byte range, or null if it cannot be
+	 * satisfied. A header S3 would ignore yields the whole object.
+	 */
+	static long[] parseRange(String header, long size) {
+		if (!header.startsWith("bytes=") || header.contains(",")) {
+			return new long[] { 0, size - 1 };
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return new long[] { 0, size - 1 };
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			if (first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				if (suffix == 0) {
+					return null;
+				}
+				return new long[] { Math.max(0, size - suffix), size - 1 };
+			}
+			long from = Long.parseLong(first);
+			long to = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+			if (from >= size) {
+				return null;
+			}
+			if (to < from) {
+				return new long[] { 0, size - 1 };
+			}
+			return new long[] { from, to };
+		} catch (NumberFormatException e) {
+			return new long[] { 0, size - 1 };
+		}
+	}
+
+	private void deleteObjects(HttpExchange ex, Bucket bucket) throws IOException {
+		Document doc = parseXml(readBody(ex));
+		boolean quiet = "true".equalsIgnoreCase(text(doc.getDocumentElement(), "Quiet"));
+		StringBuilder sb = new StringBuilder("<DeleteResult xmlns=\"" + XMLNS + "\">");
+		NodeList objects = doc.getElementsByTagName("Object");
+		for (int i = 0; i < objects.getLength(); i++) {
+			String key = text((Element) objects.item(i), "Key");
+			bucket.objects.remove(key);
+			if (!quiet) {
+				sb.append("<Deleted>").append(element("Key", key)).append("</Deleted>");
+			}
+		}
+		sendXml(ex, 200, sb.append("</DeleteResult>").toString());
+	}
+
+	// multipart
+
+	private void initiateUpload(HttpExchange ex, Bucket bucket, String key) throws IOException {
+		checkEncryption(ex.getRequestHeaders());
+		Upload u = new Upload(bucket.name, key, storedHeaders(ex.getRequestHeaders()));
+		uploads.put(u.id, u);
+		echoEncryption(ex, u.headers);
+		sendXml(ex, 200, "<InitiateMultipartUploadResult xmlns=\"" + XMLNS + "\">" + element("Bucket", bucket.name)
+				+ element("Key", key) + element("UploadId", u.id) + "</InitiateMultipartUploadResult>");
+	}
+
+	private void uploadPart(HttpExchange ex, Upload u, Map<String, String> query, boolean copy) throws IOException {
+		int partNumber;
+		try {
+			partNumber = Integer.parseInt(query.get("partNumber"));
+		} catch (NumberFormatException e) {
+			partNumber = 0;
+		}
+		if (partNumber < 1 || partNumber > PartSizePlanner.MAX_PARTS) {
+			throw new S3Error(400, "InvalidArgument", "Part number must be an integer between 1 and 10000");
+		}
+		if (!copy) {
+			byte[] data = readBody(ex);
+			StoredObject part = new StoredObject(data, md5Hex(data), u.headers);
+			u.parts.put(partNumber, part);
+			ex.getResponseHeaders().set("ETag", quote(part.etag));
+			echoEncryption(ex, u.headers);
+			sendResponseHeaders(ex, 200, -1);
+			return;
+		}
+
+		StoredObject src = copySource(ex.getRequestHeaders());
+		byte[] data = src.data;
+		String range = ex.getRequestHeaders().getFirst("x-amz-copy-source-range");
+		if (range != null) {
+			long[] r = parseRange(range, src.data.length);
+			if (r == null || !range.matches("bytes=\\d+-\\d+")) {
+				throw new S3Error(400, "InvalidArgument", "The x-amz-copy-source-range value must be of the form bytes=first-last");
+			}
+			data = Arrays.copyOfRange(src.data, (int) r[0], (int) r[1] + 1);
+		}
+		StoredObject part = new StoredObject(data, md5Hex(data), u.headers);
+		u.parts.put(partNumber, part);
+		sendXml(ex, 200, "<CopyPartResult xmlns=\"" + XMLNS + "\">" + element("LastModified", iso(part.lastModified))
+				+ element("ETag", quote(part.etag)) + "</CopyPartResult>");
+	}
+
+	private void listParts(HttpExchange ex, Upload u) throws IOException {
+		StringBuilder sb = new StringBuilder("<ListPartsResult xmlns=\"" + XMLNS + "\">");
+		sb.append(element("Bucket", u.bucket)).append(element("Key", u.key)).append(element("UploadId", u.id));
+		sb.append(owner("Initiator")).append(owner("Owner")).append(element("StorageClass", "STANDARD"));
+		sb.append(element("MaxParts", "10000")).append(element("IsTruncated", "false"));
+		for (Map.Entry<Integer, StoredObject> e : u.parts.entrySet()) {
+			StoredObject p = e.getValue();
+			sb.append("<Part>").append(element("PartNumber", e.getKey().toString()))
+					.append(element("LastModified", iso(p.lastModified))).append(element("ETag", quote(p.etag)))
+					.append(element("Size", Integer.toString(p.data.length))).append("</Part>");
+		}
+		sendXml(ex, 200, sb.append("</ListPartsResult>").toString());
+	}
+
+	private void completeUpload(HttpExchange ex, Upload u) throws IOException {
+		Document doc = parseXml(readBody(ex));
+		NodeList partList = doc.getElementsByTagName("Part");
+		if (partList.getLength() == 0) {
+			throw new S3Error(400, "MalformedXML", "The XML you provided was not well-formed");
+		}
+		List<StoredObject> parts = new ArrayList<StoredObject>();
+		int previous = 0;
+		for (int i = 0; i < partList.getLength(); i++) {
+			Element e = (Element) partList.item(i);
+			int number = Integer.parseInt(text(e, "PartNumber").trim());
+			if (number <= previous) {
+				throw new S3Error(400, "InvalidPartOrder", "The list of parts was not in ascending order");
+			}
+			previous = number;
+			StoredObject part = u.parts.get(number);
+			if (part == null || !unquote(text(e, "ETag")).equals(part.etag)) {
+				throw new S3Error(400, "InvalidPart", "One or more of the specified parts could not be found");
+			}
+			parts.add(part);
+		}
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		MessageDigest md5s = md5();
+		for (int i = 0; i < parts.size(); i++) {
+			StoredObject part = parts.get(i);
+			if (i < parts.size() - 1 && part.data.length < PartSizePlanner.MIN_PART_SIZE) {
+				throw new S3Error(400, "EntityTooSmall", "Your proposed upload is smaller than the minimum allowed size");
+			}
+			data.write(part.data);
+			md5s.update(hexToBytes(part.etag));
+		}
+		StoredObject o = new StoredObject(data.toByteArray(), hex(md5s.digest()) + "-" + parts.size(), u.headers);
+		bucket(u.bucket).put(u.key, o);
+		uploads.remove(u.id);
+		echoEncryption(ex, o.headers);
+		sendXml(ex, 200, "<CompleteMultipartUploadResult xmlns=\"" + XMLNS + "\">"
+				+ element("Location", "/" + u.bucket + "/" + u.key) + element("Bucket", u.bucket)
+				+ element("Key", u.key) + element("ETag", quote(o.etag)) + "</CompleteMultipartUploadResult>");
+	}
+
+	private void listUploads(HttpExchange ex, Bucket bucket) throws IOException {
+		StringBuilder sb = new StringBuilder("<ListMultipartUploadsResult xmlns=\"" + XMLNS + "\">");
+		sb.append(element("Bucket", bucket.name)).append(element("IsTruncated", "false"));
+		for (Upload u : new TreeMap<String, Upload>(uploads).values()) {
+			if (u.bucket.equals(bucket.name)) {
+				sb.append("<Upload>").append(element("Key", u.key)).append(element("UploadId", u.id))
+						.append(owner("Initiator")).append(owner("Owner"))
+						.append(element("StorageClass", "STANDARD")).append(element("Initiated", iso(u.initiated)))
+						.append("</Upload>");
+			}
+		}
+		sendXml(ex, 200, sb.append("</ListMultipartUploadsResult>").toString());
+	}
+
+	// listings
+
+	private void listBuckets(HttpExchange ex) throws IOException {
+		StringBuilder sb = new StringBuilder("<ListAllMyBucketsResult xmlns=\"" + XMLNS + "\">");
+		sb.append(owner("Owner")).append("<Buckets>");
+		for (Bucket b : new TreeMap<String, Bucket>(buckets).values()) {
+			sb.append("<Bucket>").append(element("Name", b.name)).append(element("CreationDate", iso(b.created)))
+					.append("</Bucket>");
+		}
+		sendXml(ex, 200, sb.append("</Buckets></ListAllMyBucketsResult>").toString());
+	}
+
+	private void list(HttpExchange ex, String operation, Bucket bucket, Map<String, String> query)
+			throws IOException {
+		String prefix = query.getOrDefault("prefix", "");
+		String delimiter = query.getOrDefault("delimiter", "");
+		int maxKeys = Math.max(0, Integer.parseInt(query.getOrDefault("max-keys", "1000")));
+		boolean url = "url".equals(query.get("encoding-type"));
+		String marker;
+		switch (operation) {
+		case "ListObjectsV2":
+			String token = query.get("continuation-token");
+			marker = token != null ? new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8)
+					: query.getOrDefault("start-after", "");
+			break;
+		case "ListVersions":
+			marker = query.getOrDefault("key-marker", "");
+			break;
+		default:
+			marker = query.getOrDefault("marker", "");
+		}
+		Listing l = list(bucket, prefix, delimiter, marker, maxKeys);
+
+		StringBuilder sb = new StringBuilder();
+		String root = operation.equals("ListVersions") ? "ListVersionsResult" : "ListBucketResult";
+		sb.append("<").append(root).append(" xmlns=\"").append(XMLNS).append("\">");
+		sb.append(element("Name", bucket.name)).append(element("Prefix", encode(prefix, url)));
+		switch (operation) {
+		case "ListObjectsV2":
+			sb.append(element("KeyCount", Integer.toString(l.contents.size() + l.commonPrefixes.size())));
+			if (query.containsKey("continuation-token")) {
+				sb.append(element("ContinuationToken", query.get("continuation-token")));
+			}
+			if (query.containsKey("start-after")) {
+				sb.append(element("StartAfter", encode(query.get("start-after"), url)));
+			}
+			if (l.truncated) {
+				sb.append(element("NextContinuationToken",
+						Base64.getEncoder().encodeToString(l.last.getBytes(StandardCharsets.UTF_8))));
+			}
+			break;
+		case "ListVersions":
+			sb.append(element("KeyMarker", encode(marker, url))).append(element("VersionIdMarker", ""));
+			if (l.truncated) {
+				sb.append(element("NextKeyMarker", encode(l.last, url))).append(element("NextVersionIdMarker", "null"));
+			}
+			break;
+		default:
+			sb.append(element("Marker", encode(marker, url)));
+			if (l.truncated) {
+				sb.append(element("NextMarker", encode(l.last, url)));
+			}
+		}
+		sb.append(element("MaxKeys", Integer.toString(maxKeys)));
+		if (!delimiter.isEmpty()) {
+			sb.append(element("Delimiter", encode(delimiter, url)));
+		}
+		if (url) {
+			sb.append(element("EncodingType", "url"));
+		}
+		sb.append(element("IsTruncated", Boolean.toString(l.truncated)));
+
+		boolean versions = operation.equals("ListVersions");
+		boolean withOwner = !operation.equals("ListObjectsV2") || "true".equals(query.get("fetch-owner"));
+		for (Map.Entry<String, StoredObject> e : l.contents) {
+			StoredObject o = e.getValue();
+			sb.append(versions ? "<Version>" : "<Contents>").append(element("Key", encode(e.getKey(), url)));
+			if (versions) {
+				sb.append(element("VersionId", "null")).append(element("IsLatest", "true"));
+			}
+			sb.append(element("LastModified", iso(o.lastModified))).append(element("ETag", quote(o.etag)))
+					.append(element("Size", Integer.toString(o.data.length)))
+					.append(element("StorageClass", "STANDARD"));
+			if (withOwner) {
+				sb.append(owner("Owner"));
+			}
+			sb.append(versions ? "</Version>" : "</Contents>");
+		}
+		for (String p : l.commonPrefixes) {
+			sb.append("<CommonPrefixes>").append(element("Prefix", encode(p, url))).append("</CommonPrefixes>");
+		}
+		sendXml(ex, 200, sb.append("</").append(root).append(">").toString());
+	}
+
+	/*
+	 * Walks the sorted key space from marker on, rolling keys up into common
+	 * prefixes and skipping over a whole prefix at once.
+	 */
+	static Listing list(Bucket bucket, String prefix, String delimiter, String marker, int maxKeys) {
+		Listing l = new Listing();
+		String cursor = marker.compareTo(prefix) > 0 ? marker : prefix;
+		boolean inclusive = cursor.equals(prefix) && !cursor.equals(marker);
+		Map.Entry<String, StoredObject> e = inclusive ? bucket.objects.ceilingEntry(cursor)
+				: bucket.objects.higherEntry(cursor);
+		int count = 0;
+		while (e != null && e.getKey().startsWith(prefix)) {
+			String key = e.getKey();
+			int d = delimiter.isEmpty() ? -1 : key.indexOf(delimiter, prefix.length());
+			String commonPrefix = d < 0 ? null : key.substring(0, d + delimiter.length());
+			if (commonPrefix != null && marker.startsWith(commonPrefix)) {
+				// the marker is, or is inside, a prefix that was already returned
+				e = bucket.objects.higherEntry(commonPrefix + Character.MAX_VALUE);
+				continue;
+			}
+			if (count == maxKeys) {
+				l.truncated = maxKeys > 0;
+				break;
+			}
+			count++;
+			if (commonPrefix != null) {
+				l.commonPrefixes.add(commonPrefix);
+				l.last = commonPrefix;
+				e = bucket.objects.higherEntry(commonPrefix + Character.MAX_VALUE);
+			} else {
+				l.contents.add(e);
+				l.last = key;
+				e = bucket.objects.higherEntry(key);
+			}
+		}
+		return l;
+	}
+
+	// request and response helpers
+
+	/*
+	 * Reads the request body, decoding aws-chunked (SigV4 streaming) framing
+	 * and checking Content-MD5.
+	 */
+	private byte[] readBody(HttpExchange ex) throws IOException {
+		Headers h = ex.getRequestHeaders();
+		// like S3, a plain chunked transfer encoding without a length is refused
+		if (h.getFirst("Content-Length") == null && h.getFirst("x-amz-decoded-content-length") == null) {
+			throw new S3Error(411, "MissingContentLength", "You must provide the Content-Length HTTP header");
+		}
+		byte[] body = IOUtils.toByteArray(ex.getRequestBody());
+		String sha256 = h.getFirst("x-amz-content-sha256");
+		String encoding = h.getFirst("Content-Encoding");
+		if ((sha256 != null && sha256.startsWith("STREAMING-")) || (encoding != null && encoding.contains("aws-chunked"))) {
+			body = decodeAwsChunked(body);
+		}
+		String contentMd5 = h.getFirst("Content-MD5");
+		if (contentMd5 != null) {
+			if (!contentMd5.matches("[A-Za-z0-9+/= ]*")) {
+				// what RGW answers for a digest that is not even base64 text
+				throw new S3Error(403, "AccessDenied", "Access Denied");
+			}
+			byte[] expected;
+			try {
+				expected = Base64.getDecoder().decode(contentMd5.trim());
+			} catch (IllegalArgumentException e) {
+				expected = new byte[0];
+			}
+			if (expected.length != 16) {
+				throw new S3Error(400, "InvalidDigest", "The Content-MD5 you specified was invalid");
+			}
+			if (!MessageDigest.isEqual(expected, md5().digest(body))) {
+				throw new S3Error(400, "BadDigest", "The Content-MD5 you specified did not match what we received");
+			}
+		}
+		return body;
+	}
+
+	/*
+	 * aws-chunked: "<hex size>;chunk-signature=<sig>\r\n<data>\r\n" repeated,
+	 * ending with a zero size chunk.
+	 */
+	static byte[] decodeAwsChunked(byte[] body) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length);
+		int pos = 0;
+		while (pos < body.length) {
+			int eol = indexOfCrlf(body, pos);
+			if (eol < 0) {
+				throw new S3Error(400, "IncompleteBody", "Malformed aws-chunked body");
+			}
+			String header = new String(body, pos, eol - pos, StandardCharsets.US_ASCII);
+			int semicolon = header.indexOf(';');
+			int size = Integer.parseInt((semicolon < 0 ? header : header.substring(0, semicolon)).trim(), 16);
+			pos = eol + 2;
+			if (size == 0) {
+				break;
+			}
+			if (pos + size > body.length) {
+				throw new S3Error(400, "IncompleteBody", "Malformed aws-chunked body");
+			}
+			out.write(body, pos, size);
+			pos += size + 2;
+		}
+		return out.toByteArray();
+	}
+
+	private static int indexOfCrlf(byte[] b, int from) {
+		for (int i = from; i + 1 < b.length; i++) {
+			if (b[i] == '\r' && b[i + 1] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static Map<String, String> storedHeaders(Headers h) {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("content-type", "binary/octet-stream");
+		for (Map.Entry<String, List<String>> e : h.entrySet()) {
+			String name = e.getKey().toLowerCase();
+			if (name.startsWith("x-amz-meta-") || STORED_HEADERS.contains(name)) {
+				headers.put(name, e.getValue().get(0));
+			}
+		}
+		String encoding = headers.get("content-encoding");
+		if (encoding != null) {
+			encoding = encoding.replaceAll("aws-chunked,?\\s*", "").trim();
+			if (encoding.isEmpty()) {
+				headers.remove("content-encoding");
+			} else {
+				headers.put("content-encoding", encoding);
+			}
+		}
+		return headers;
+	}
+
+	private static void echoEncryption(HttpExchange ex, Map<String, String> headers) {
+		for (Map.Entry<String, String> e : headers.entrySet()) {
+			if (e.getKey().startsWith("x-amz-server-side-encryption")) {
+				ex.getResponseHeaders().set(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	private void sendError(HttpExchange ex, S3Error e) throws IOException {
+		if ("HEAD".equals(ex.getRequestMethod())) {
+			sendResponseHeaders(ex, e.status, -1);
+			return;
+		}
+		sendXml(ex, e.status, "<Error>" + element("Code", e.code) + element("Message", e.getMessage())
+				+ element("Resource", ex.getRequestURI().getPath()) + element("RequestId", "standin") + "</Error>");
+	}
+
+	private static void sendXml(HttpExchange ex, int status, String xml) throws IOException {
+		byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml).getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/xml");
+		sendResponseHeaders(ex, status, body.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private String acl() {
+		return "<AccessControlPolicy xmlns=\"" + XMLNS + "\">" + owner("Owner") + "<AccessControlList>"
+				+ "<Grant><Grantee xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"CanonicalUser\">"
+				+ element("ID", ownerId) + element("DisplayName", ownerName) + "</Grantee>"
+				+ element("Permission", "FULL_CONTROL") + "</Grant></AccessControlList></AccessControlPolicy>";
+	}
+
+	private String owner(String tag) {
+		return "<" + tag + ">" + element("ID", ownerId) + element("DisplayName", ownerName) + "</" + tag + ">";
+	}
+
+	static String element(String name, String value) {
+		StringBuilder sb = new StringBuilder().append('<').append(name).append('>');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '"':
+				sb.append("&quot;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.append("</").append(name).append('>').toString();
+	}
+
+	private static Document parseXml(byte[] body) {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(body));
+		} catch (Exception e) {
+			throw new S3Error(400, "MalformedXML", "The XML you provided was not well-formed");
+		}
+	}
+
+	private static String text(Element parent, String tag) {
+		NodeList nodes = parent.getElementsByTagName(tag);
+		return nodes.getLength() == 0 ? "" : nodes.item(0).getTextContent();
+	}
+
+	private static String encode(String value, boolean url) {
+		if (!url) {
+			return value;
+		}
+		try {
+			return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String decodePath(String value) {
+		try {
+			return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String iso(long millis) {
+		return ISO8601.format(Instant.ofEpochMilli(millis));
+	}
+
+	private static String quote(String etag) {
+		return "\"" + etag + "\"";
+	}
+
+	private static String unquote(String etag) {
+		return etag.trim().replace("\"", "");
+	}
+
+	private static MessageDigest md5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String md5Hex(byte[] data) {
+		return hex(md5().digest(data));
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] hexToBytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+}
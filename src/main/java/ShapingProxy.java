@@ -0,0 +1,490 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local forward HTTP proxy that makes a nearby gateway look like a remote or
+ * loaded one. Clients reach it through the proxy settings of their
+ * ClientConfiguration. Per S3 operation (as named by S3Operations) it can
+ *
+ * - delay requests by a fixed, uniformly or exponentially distributed time,
+ * - answer with 503 SlowDown instead of forwarding,
+ * - reset the connection instead of forwarding,
+ *
+ * and it caps the bandwidth of every connection in each direction. Faults are
+ * drawn from a per-connection Random derived from a fixed seed, so a run with
+ * the same settings and request order sees the same faults.
+ *
+ * Only plain HTTP requests can be shaped per operation. HTTPS is tunnelled
+ * with CONNECT and only gets the bandwidth cap.
+ */
+public class ShapingProxy {
+
+	/**
+	 * A delay distribution in milliseconds.
+	 */
+	public interface Delay {
+		long millis(Random random);
+	}
+
+	/**
+	 * Parses "N" (fixed), "A-B" (uniform) or "exp:M" (exponential with mean M).
+	 */
+	public static Delay parseDelay(String spec) {
+		final String s = spec.trim();
+		if (s.startsWith("exp:")) {
+			final double mean = Double.parseDouble(s.substring(4));
+			return r -> (long) (-mean * Math.log(1 - r.nextDouble()));
+		}
+		int dash = s.indexOf('-');
+		if (dash > 0) {
+			final long min = Long.parseLong(s.substring(0, dash).trim());
+			final long max = Long.parseLong(s.substring(dash + 1).trim());
+			return r -> min + (long) (r.nextDouble() * (max - min + 1));
+		}
+		final long fixed = Long.parseLong(s);
+		return r -> fixed;
+	}
+
+	/**
+	 * Parses "op=value,op=value,*=value" into a map; "*" applies to every
+	 * operation not listed and a bare value means "*=value".
+	 */
+	static Map<String, String> parseByOperation(String spec) {
+		Map<String, String> byOperation = new HashMap<String, String>();
+		if (spec == null) {
+			return byOperation;
+		}
+		for (String entry : spec.split(",")) {
+			if (entry.trim().isEmpty()) {
+				continue;
+			}
+			int eq = entry.indexOf('=');
+			byOperation.put(eq < 0 ? "*" : entry.substring(0, eq).trim(), entry.substring(eq + 1).trim());
+		}
+		return byOperation;
+	}
+
+	private static <T> T forOperation(Map<String, T> byOperation, String operation) {
+		T value = byOperation.get(operation);
+		return value != null ? value : byOperation.get("*");
+	}
+
+	private final ServerSocket server;
+	private final ExecutorService executor;
+	private final Map<String, Delay> latency = new HashMap<String, Delay>();
+	private final Map<String, Double> slowdown = new HashMap<String, Double>();
+	private final Map<String, Double> reset = new HashMap<String, Double>();
+	private final long bandwidth;
+	private final long seed;
+	private final AtomicLong connections = new AtomicLong();
+	private volatile boolean running = true;
+
+	/**
+	 * Starts listening on 127.0.0.1:port, port 0 picks a free one.
+	 *
+	 * @param latencySpec
+	 *            per operation delay, e.g. "*=5,GetObject=20-80,UploadPart=exp:40"
+	 * @param slowdownSpec
+	 *            per operation probability of a 503 SlowDown, e.g. "PutObject=0.05"
+	 * @param resetSpec
+	 *            per operation probability of a connection reset
+	 * @param bandwidth
+	 *            bytes per second per connection and direction, 0 for no limit
+	 */
+	public ShapingProxy(int port, String latencySpec, String slowdownSpec, String resetSpec, long bandwidth,
+			long seed, boolean useVirtualThreads) throws IOException {
+		for (Map.Entry<String, String> e : parseByOperation(latencySpec).entrySet()) {
+			latency.put(e.getKey(), parseDelay(e.getValue()));
+		}
+		for (Map.Entry<String, String> e : parseByOperation(slowdownSpec).entrySet()) {
+			slowdown.put(e.getKey(), Double.parseDouble(e.getValue()));
+		}
+		for (Map.Entry<String, String> e : parseByOperation(resetSpec).entrySet()) {
+			reset.put(e.getKey(), Double.parseDouble(e.getValue()));
+		}
+		this.bandwidth = bandwidth;
+		this.seed = seed;
+		server = new ServerSocket(port, 1024, InetAddress.getByName("127.0.0.1"));
+		// one thread per connection, idle keep-alive connections included
+		executor = ThreadPools.newUnboundedExecutor("shaping-proxy", useVirtualThreads);
+		executor.submit(this::accept);
+		S3.logger.info(String.format("Shaping proxy listening on 127.0.0.1:%d, latency %s, slowdown %s, reset %s, "
+				+ "bandwidth %d B/s", getPort(), latencySpec, slowdownSpec, resetSpec, bandwidth));
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			server.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		executor.shutdownNow();
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket client = server.accept();
+				final Random random = new Random(seed + connections.getAndIncrement());
+				executor.submit(() -> serve(client, random));
+			} catch (IOException e) {
+				if (running) {
+					S3.logger.warn(String.format("Shaping proxy accept failed: %s", e));
+				}
+			}
+		}
+	}
+
+	/*
+	 * Serves the requests of one client connection, forwarding them over one
+	 * upstream connection per target.
+	 */
+	private void serve(Socket client, Random random) {
+		Socket upstream = null;
+		String upstreamAuthority = null;
+		try {
+			client.setTcpNoDelay(true);
+			InputStream clientIn = new BufferedInputStream(client.getInputStream());
+			OutputStream clientOut = client.getOutputStream();
+			Throttle up = new Throttle(bandwidth);
+			Throttle down = new Throttle(bandwidth);
+			InputStream upstreamIn = null;
+			OutputStream upstreamOut = null;
+			while (running) {
+				String requestLine = readLine(clientIn);
+				if (requestLine == null) {
+					return;
+				}
+				String[] parts = requestLine.split(" ");
+				if (parts.length != 3) {
+					return;
+				}
+				String method = parts[0];
+				List<String[]> headers = readHeaders(clientIn);
+				if (method.equals("CONNECT")) {
+					tunnel(client, clientIn, parts[1], up, down);
+					return;
+				}
+
+				URI uri = new URI(parts[1]);
+				String authority = uri.getHost() + ":" + (uri.getPort() < 0 ? 80 : uri.getPort());
+				String[] path = S3Operations.splitPath(uri.getPath() == null ? "/" : uri.getPath());
+				String operation = S3Operations.classify(method, path[0], path[1],
+						S3Operations.parseQuery(uri.getRawQuery()), header(headers, "x-amz-copy-source") != null);
+
+				// answer 100-continue here, so faults can be injected after the body
+				if ("100-continue".equalsIgnoreCase(header(headers, "Expect"))) {
+					removeHeader(headers, "Expect");
+					clientOut.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					clientOut.flush();
+				}
+				removeHeader(headers, "Proxy-Connection");
+
+				Double resetProbability = forOperation(reset, operation);
+				if (resetProbability != null && random.nextDouble() < resetProbability) {
+					S3.logger.debug(String.format("Shaping proxy resets %s", operation));
+					client.setSoLinger(true, 0);
+					return;
+				}
+				Double slowdownProbability = forOperation(slowdown, operation);
+				if (slowdownProbability != null && random.nextDouble() < slowdownProbability) {
+					S3.logger.debug(String.format("Shaping proxy slows down %s", operation));
+					copyBody(clientIn, null, headers, true, up);
+					sendSlowDown(clientOut, uri.getPath());
+					continue;
+				}
+				Delay delay = forOperation(latency, operation);
+				if (delay != null) {
+					Thread.sleep(delay.millis(random));
+				}
+
+				if (upstream == null || !authority.equals(upstreamAuthority) || isStale(upstream, upstreamIn)) {
+					closeQuietly(upstream);
+					upstream = new Socket(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort());
+					upstream.setTcpNoDelay(true);
+					upstreamAuthority = authority;
+					upstreamIn = new BufferedInputStream(upstream.getInputStream());
+					upstreamOut = upstream.getOutputStream();
+				}
+				String target = uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+				writeHead(upstreamOut, method + " " + target + " " + parts[2], headers);
+				copyBody(clientIn, upstreamOut, headers, true, up);
+				upstreamOut.flush();
+
+				String statusLine;
+				List<String[]> responseHeaders;
+				do {
+					statusLine = readLine(upstreamIn);
+					if (statusLine == null) {
+						return;
+					}
+					responseHeaders = readHeaders(upstreamIn);
+				} while (statusLine.split(" ")[1].startsWith("1"));
+				writeHead(clientOut, statusLine, responseHeaders);
+				int status = Integer.parseInt(statusLine.split(" ")[1]);
+				boolean closeAfter = "close".equalsIgnoreCase(header(responseHeaders, "Connection"))
+						|| "close".equalsIgnoreCase(header(headers, "Connection"));
+				if (!method.equals("HEAD") && status != 204 && status != 304) {
+					if (!copyBody(upstreamIn, clientOut, responseHeaders, false, down)) {
+						closeAfter = true;
+					}
+				}
+				clientOut.flush();
+				if (closeAfter) {
+					return;
+				}
+			}
+		} catch (URISyntaxException | IOException e) {
+			S3.logger.debug(String.format("Shaping proxy connection ended: %s", e));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			closeQuietly(upstream);
+			closeQuietly(client);
+		}
+	}
+
+	/*
+	 * HTTPS: relays raw bytes both ways, with only the bandwidth cap applied.
+	 */
+	private void tunnel(final Socket client, final InputStream clientIn, String authority, Throttle up,
+			final Throttle down) throws IOException {
+		int colon = authority.lastIndexOf(':');
+		final Socket upstream = new Socket(authority.substring(0, colon),
+				Integer.parseInt(authority.substring(colon + 1)));
+		try {
+			OutputStream clientOut = client.getOutputStream();
+			clientOut.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			clientOut.flush();
+			executor.submit(() -> {
+				try {
+					copy(upstream.getInputStream(), clientOut, Long.MAX_VALUE, down);
+				} catch (IOException e) {
+					// the other direction closes the sockets
+				} finally {
+					closeQuietly(client);
+				}
+			});
+			copy(clientIn, upstream.getOutputStream(), Long.MAX_VALUE, up);
+		} finally {
+			closeQuietly(upstream);
+		}
+	}
+
+	private static void sendSlowDown(OutputStream out, String resource) throws IOException {
+		byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Error><Code>SlowDown</Code>"
+				+ "<Message>Please reduce your request rate.</Message><Resource>" + resource
+				+ "</Resource><RequestId>shaping-proxy</RequestId></Error>").getBytes(StandardCharsets.UTF_8);
+		List<String[]> headers = new ArrayList<String[]>();
+		headers.add(new String[] { "Content-Type", "application/xml" });
+		headers.add(new String[] { "Content-Length", Integer.toString(body.length) });
+		writeHead(out, "HTTP/1.1 503 Slow Down", headers);
+		out.write(body);
+		out.flush();
+	}
+
+	/*
+	 * Copies a message body framed by Content-Length or chunked encoding, or
+	 * for responses without either, delimited by the end of the stream. out may
+	 * be null to discard it. Returns false if the body ran to the end of the stream.
+	 */
+	private static boolean copyBody(InputStream in, OutputStream out, List<String[]> headers, boolean request,
+			Throttle throttle) throws IOException {
+		String transferEncoding = header(headers, "Transfer-Encoding");
+		if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+			while (true) {
+				String sizeLine = readLine(in);
+				if (sizeLine == null) {
+					throw new IOException("Truncated chunked body");
+				}
+				writeLine(out, sizeLine);
+				int semicolon = sizeLine.indexOf(';');
+				long size = Long.parseLong((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+				if (size == 0) {
+					// trailers up to the empty line
+					String line;
+					do {
+						line = readLine(in);
+						writeLine(out, line == null ? "" : line);
+					} while (line != null && !line.isEmpty());
+					return true;
+				}
+				copy(in, out, size, throttle);
+				writeLine(out, readLine(in));
+			}
+		}
+		String length = header(headers, "Content-Length");
+		if (length != null) {
+			copy(in, out, Long.parseLong(length.trim()), throttle);
+			return true;
+		}
+		if (request) {
+			return true;
+		}
+		copy(in, out, Long.MAX_VALUE, throttle);
+		return false;
+	}
+
+	private static void copy(InputStream in, OutputStream out, long length, Throttle throttle) throws IOException {
+		byte[] buf = new byte[16 * 1024];
+		long remaining = length;
+		while (remaining > 0) {
+			int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+			if (n < 0) {
+				if (length == Long.MAX_VALUE) {
+					return;
+				}
+				throw new IOException("Truncated body");
+			}
+			throttle.acquire(n);
+			if (out != null) {
+				out.write(buf, 0, n);
+				if (length == Long.MAX_VALUE) {
+					out.flush();
+				}
+			}
+			remaining -= n;
+		}
+	}
+
+	/*
+	 * Token bucket over one direction of one connection.
+	 */
+	static class Throttle {
+		private final long bytesPerSecond;
+		private long nextFreeNanos = System.nanoTime();
+
+		Throttle(long bytesPerSecond) {
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		void acquire(int bytes) throws IOException {
+			if (bytesPerSecond <= 0) {
+				return;
+			}
+			long now = System.nanoTime();
+			nextFreeNanos = Math.max(nextFreeNanos, now) + bytes * 1000000000L / bytesPerSecond;
+			long wait = nextFreeNanos - now;
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SocketException("Interrupted");
+				}
+			}
+		}
+	}
+
+	/*
+	 * Whether the gateway closed an idle upstream connection, the same check
+	 * HTTP clients do before reusing a pooled connection.
+	 */
+	private static boolean isStale(Socket socket, InputStream in) {
+		try {
+			socket.setSoTimeout(1);
+			in.mark(1);
+			if (in.read() < 0) {
+				return true;
+			}
+			in.reset();
+			return false;
+		} catch (SocketTimeoutException e) {
+			return false;
+		} catch (IOException e) {
+			return true;
+		} finally {
+			try {
+				socket.setSoTimeout(0);
+			} catch (SocketException e) {
+				// checked again on the next use
+			}
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				byte[] b = line.toByteArray();
+				int length = b.length > 0 && b[b.length - 1] == '\r' ? b.length - 1 : b.length;
+				return new String(b, 0, length, StandardCharsets.ISO_8859_1);
+			}
+			line.write(c);
+		}
+		return line.size() == 0 ? null : line.toString("ISO-8859-1");
+	}
+
+	private static List<String[]> readHeaders(InputStream in) throws IOException {
+		List<String[]> headers = new ArrayList<String[]>();
+		String line;
+		while ((line = readLine(in)) != null && !line.isEmpty()) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				headers.add(new String[] { line.substring(0, colon).trim(), line.substring(colon + 1).trim() });
+			}
+		}
+		return headers;
+	}
+
+	private static String header(List<String[]> headers, String name) {
+		for (String[] h : headers) {
+			if (h[0].equalsIgnoreCase(name)) {
+				return h[1];
+			}
+		}
+		return null;
+	}
+
+	private static void removeHeader(List<String[]> headers, String name) {
+		headers.removeIf(h -> h[0].equalsIgnoreCase(name));
+	}
+
+	private static void writeHead(OutputStream out, String firstLine, List<String[]> headers) throws IOException {
+		StringBuilder sb = new StringBuilder(firstLine).append("\r\n");
+		for (String[] h : headers) {
+			sb.append(h[0]).append(": ").append(h[1]).append("\r\n");
+		}
+		out.write(sb.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static void writeLine(OutputStream out, String line) throws IOException {
+		if (out != null) {
+			out.write((line + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.amazonaws.util.BinaryUtils;
+
+/**
+ * Reproducible pseudo random object content generated on the fly.
+ *
+ * The byte at absolute position p of the content for a given seed only depends
+ * on (seed, p), so any range of an object can be produced, re-produced after a
+ * reset, or checked against what the gateway returns without keeping a copy on
+ * disk or on the heap. Files written by S3.createFile() with the same seed hold
+ * exactly the same bytes.
+ *
+ * The stream supports mark/reset, so the SDK can rewind it when it retries a
+ * PutObject or UploadPart request.
+ */
+public class SyntheticObjectStream extends InputStream {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final int DIGEST_BLOCK_SIZE = 64 * 1024;
+
+	private final long seedHash;
+	private final long offset;
+	private final long length;
+	private long pos;
+	private long markPos;
+
+	public SyntheticObjectStream(long seed, long length) {
+		this(seed, 0, length);
+	}
+
+	/**
+	 * Content of the object generated from seed, starting at offset and length
+	 * bytes long, e.g. one part of a multipart upload.
+	 */
+	public SyntheticObjectStream(long seed, long offset, long length) {
+		this.seedHash = mix(seed);
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	@Override
+	public int read() {
+		if (pos >= length) {
+			return -1;
+		}
+		// the byte fill() would produce, without a buffer
+		long position = offset + pos++;
+		return (int) (mix(seedHash + GOLDEN_GAMMA * (position >>> 3)) >>> ((position & 7) * 8)) & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (pos >= length) {
+			return -1;
+		}
+		int n = (int) Math.min(len, length - pos);
+		fill(seedHash, offset + pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		long skipped = Math.max(0, Math.min(n, length - pos));
+		pos += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, length - pos);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+		markPos = pos;
+	}
+
+	@Override
+	public void reset() {
+		pos = markPos;
+	}
+
+	/**
+	 * MD5 of the given range, i.e. the ETag of a plain PUT of that content.
+	 */
+	public static byte[] md5(long seed, long offset, long length) {
+		MessageDigest md = newMd5();
+		byte[] block = new byte[DIGEST_BLOCK_SIZE];
+		long seedHash = mix(seed);
+		for (long done = 0; done < length;) {
+			int n = (int) Math.min(block.length, length - done);
+			fill(seedHash, offset + done, block, 0, n);
+			md.update(block, 0, n);
+			done += n;
+		}
+		return md.digest();
+	}
+
+	public static String md5Hex(long seed, long length) {
+		return BinaryUtils.toHex(md5(seed, 0, length));
+	}
+
+	/**
+	 * ETag S3 reports for the object once uploaded in parts of partSize bytes.
+	 */
+	public static String multipartETag(long seed, long length, long partSize) {
+		MessageDigest md = newMd5();
+		int parts = 0;
+		for (long partOffset = 0; partOffset < length; partOffset += partSize) {
+			md.update(md5(seed, partOffset, Math.min(partSize, length - partOffset)));
+			parts++;
+		}
+		return BinaryUtils.toHex(md.digest()) + "-" + parts;
+	}
+
+	/**
+	 * Reads in until EOF and checks that it returned exactly the given range of
+	 * the seeded content.
+	 */
+	public static boolean verify(InputStream in, long seed, long offset, long length) throws IOException {
+		long seedHash = mix(seed);
+		byte[] actual = new byte[DIGEST_BLOCK_SIZE];
+		byte[] expected = new byte[DIGEST_BLOCK_SIZE];
+		long done = 0;
+		int n;
+		while ((n = in.read(actual, 0, actual.length)) != -1) {
+			if (done + n > length) {
+				return false;
+			}
+			fill(seedHash, offset + done, expected, 0, n);
+			for (int i = 0; i < n; i++) {
+				if (actual[i] != expected[i]) {
+					return false;
+				}
+			}
+			done += n;
+		}
+		return done == length;
+	}
+
+	/*
+	 * SplitMix64: word i of the content is mix(mix(seed) + i * gamma), laid out
+	 * little endian, so any byte can be computed from its position alone.
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	static void fill(long seedHash, long position, byte[] b, int off, int len) {
+		while (len > 0) {
+			int shift = (int) (position & 7);
+			long word = mix(seedHash + GOLDEN_GAMMA * (position >>> 3)) >>> (shift * 8);
+			int n = Math.min(8 - shift, len);
+			for (int i = 0; i < n; i++) {
+				b[off++] = (byte) word;
+				word >>>= 8;
+			}
+			position += n;
+			len -= n;
+		}
+	}
+
+	private static MessageDigest newMd5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
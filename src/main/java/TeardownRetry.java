@@ -0,0 +1,71 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+
+/**
+ * Retries a single teardown operation (a listing page, a delete batch, a bucket
+ * delete) on client side errors such as connection resets.
+ *
+ * The delay grows exponentially from baseDelayMillis up to maxDelayMillis with
+ * a random jitter, and the operation is given up once the time budget is spent.
+ * All the retry state lives on the stack of call(), so one instance can be
+ * shared by any number of threads. Service errors are never retried.
+ */
+public class TeardownRetry {
+
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+	private final long budgetMillis;
+
+	public TeardownRetry(long baseDelayMillis, long maxDelayMillis, long budgetMillis) {
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+		this.budgetMillis = budgetMillis;
+	}
+
+	public <T> T call(Callable<T> operation) {
+		long deadline = System.currentTimeMillis() + budgetMillis;
+		for (int attempt = 0;; attempt++) {
+			try {
+				return operation.call();
+			} catch (AmazonServiceException e) {
+				throw e;
+			} catch (SdkClientException e) {
+				long delay = delayFor(attempt);
+				if (System.currentTimeMillis() + delay > deadline) {
+					throw e;
+				}
+				S3.logger.debug(String.format("Teardown retry #%d in %d ms: %s", attempt + 1, delay, e.getMessage()));
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new SdkClientException(e);
+			}
+		}
+	}
+
+	public void run(final Runnable operation) {
+		call(() -> {
+			operation.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Equal jitter: half of the exponential delay is kept, the other half is
+	 * randomized so that concurrent teardown threads do not retry in lockstep.
+	 */
+	long delayFor(int attempt) {
+		long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 30));
+		long half = ceiling / 2;
+		return half + ThreadLocalRandom.current().nextLong(half + 1);
+	}
+}
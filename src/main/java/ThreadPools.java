@@ -0,0 +1,119 @@
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executors used by the S3 helpers.
+ *
+ * The build targets Java 8, so virtual threads are looked up reflectively: on
+ * a JDK that has them (21+) a thread-per-task executor over virtual threads is
+ * returned, which lets a single process keep thousands of blocking SDK calls in
+ * flight. Anywhere else a fixed pool of daemon platform threads is used.
+ */
+public class ThreadPools {
+
+	static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * Returns a virtual thread executor if useVirtualThreads is set and the JDK
+	 * supports it, otherwise a pool of platformThreads daemon threads.
+	 */
+	public static ExecutorService newExecutor(String name, int platformThreads, boolean useVirtualThreads) {
+		if (useVirtualThreads) {
+			ExecutorService executor = newVirtualThreadExecutor(name);
+			if (executor != null) {
+				return executor;
+			}
+		}
+		return Executors.newFixedThreadPool(platformThreads, daemonThreads(name));
+	}
+
+	/**
+	 * Like newExecutor, but with a thread per task instead of a fixed pool when
+	 * virtual threads are not available, for tasks that block for as long as a
+	 * connection stays open.
+	 */
+	public static ExecutorService newUnboundedExecutor(String name, boolean useVirtualThreads) {
+		if (useVirtualThreads) {
+			ExecutorService executor = newVirtualThreadExecutor(name);
+			if (executor != null) {
+				return executor;
+			}
+		}
+		return Executors.newCachedThreadPool(daemonThreads(name));
+	}
+
+	/**
+	 * Wraps executor so that each task runs with the S3.setCurrentTest() name
+	 * and S3.setRequestCounter() counter of the thread that submitted it, and
+	 * the SDK calls made on pool threads count for the test that caused them.
+	 */
+	public static ExecutorService inheritTestContext(final ExecutorService executor) {
+		return new AbstractExecutorService() {
+			public void execute(final Runnable task) {
+				final String test = S3.getCurrentTest();
+				final LongAdder counter = S3.getRequestCounter();
+				executor.execute(() -> {
+					S3.setCurrentTest(test);
+					S3.setRequestCounter(counter);
+					try {
+						task.run();
+					} finally {
+						S3.setCurrentTest(null);
+						S3.setRequestCounter(null);
+					}
+				});
+			}
+
+			public void shutdown() {
+				executor.shutdown();
+			}
+
+			public List<Runnable> shutdownNow() {
+				return executor.shutdownNow();
+			}
+
+			public boolean isShutdown() {
+				return executor.isShutdown();
+			}
+
+			public boolean isTerminated() {
+				return executor.isTerminated();
+			}
+
+			public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+				return executor.awaitTermination(timeout, unit);
+			}
+		};
+	}
+
+	private static ExecutorService newVirtualThreadExecutor(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+					ThreadFactory.class);
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			// Java 8-18, or 19/20 without --enable-preview
+			S3.logger.warn(String.format("Virtual threads not available for %s, using platform threads: %s", name,
+					e.getCause() != null ? e.getCause() : e));
+			return null;
+		}
+	}
+}
@@ -6,7 +6,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 
 import org.testng.Assert;
 import org.testng.AssertJUnit;
@@ -51,7 +50,6 @@ public class AWS4Test {
 	boolean useV4Signature = true;
 	AmazonS3 svc = utils.getS3Client(useV4Signature);
 	String prefix = utils.getPrefix();
-	static Properties prop = new Properties();
 
 	@BeforeClass
 	public void generateFiles(){
@@ -64,21 +62,18 @@ public class AWS4Test {
 	@AfterClass
 	public void tearDownAfterClass() throws Exception {
 		S3.logger.debug("TeardownAfterClass");
-		utils.teradownRetries = 0;
-		utils.tearDown(svc);
+		utils.tearDownAll(svc);
 	}
 
 	@AfterMethod
 	public void tearDownAfterMethod() throws Exception {
 		S3.logger.debug("TeardownAfterMethod");
-		utils.teradownRetries = 0;
 		utils.tearDown(svc);
 	}
 
 	@BeforeMethod
 	public void setUp() throws Exception {
 		S3.logger.debug("TeardownBeforeMethod");
-		utils.teradownRetries = 0;
 		utils.tearDown(svc);
 	}
 
@@ -606,7 +601,7 @@ public class AWS4Test {
 		String key = "key1";
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 
-		String filePath = "./data/file.mpg";
+		String filePath = "./data/file53.mpg";
 		utils.createFile(filePath, 53 * 1024 * 1024);
 
 		CompleteMultipartUploadRequest resp = utils.multipartUploadLLAPI(svc, bucket_name, key, 
@@ -657,7 +652,7 @@ public class AWS4Test {
 		String key = "key1";
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 
-		String filePath = "./data/file.mpg";
+		String filePath = "./data/file13.mpg";
 		utils.createFile(filePath, 13 * 1024 * 1024);
 
 		List<PartETag> partETags = new ArrayList<PartETag>();
@@ -752,7 +747,7 @@ public class AWS4Test {
 		String key = "key1";
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 
-		String filePath = "./data/sample.txt";
+		String filePath = utils.getScratchFile("sample.txt").getPath();
 		utils.createFile(filePath, 256 * 1024);
 		long size = 5 * 1024 * 1024;
 
@@ -824,7 +819,7 @@ public class AWS4Test {
 		String key = "key1";
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 
-		String filePath = "./data/file.mpg";
+		String filePath = "./data/file53.mpg";
 		utils.createFile(filePath, 53 * 1024 * 1024);
 
 		Upload upl = utils.UploadFileHLAPI(svc, bucket_name, key, filePath);
@@ -840,7 +835,7 @@ public class AWS4Test {
 		String bucket_name = utils.getBucketName(prefix);
 		String key = "key1";
 
-		String filePath = "./data/sample.txt";
+		String filePath = utils.getScratchFile("sample.txt").getPath();
 		utils.createFile(filePath, 256 * 1024);
 
 		try {
@@ -861,8 +856,9 @@ public class AWS4Test {
 
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 
-		String dir = "./data";
-		String filePath = "./data/file.mpg";
+		String dir = utils.getScratchFile("upload").getPath();
+		String filePath = dir + "/file.mpg";
+		new File(dir).mkdirs();
 		utils.createFile(filePath, 23 * 1024 * 1024);
 
 		Transfer upl = utils.multipartUploadHLAPI(svc, bucket_name, null, dir);
@@ -878,8 +874,9 @@ public class AWS4Test {
 
 		String bucket_name = utils.getBucketName(prefix);
 
-		String dir = "./data";
-		String filePath = "./data/file.mpg";
+		String dir = utils.getScratchFile("upload").getPath();
+		String filePath = dir + "/file.mpg";
+		new File(dir).mkdirs();
 		utils.createFile(filePath, 23 * 1024 * 1024);
 
 		try {
@@ -924,7 +921,7 @@ public class AWS4Test {
 
 			// persist PersistableUpload info to a file
 			PersistableUpload persistableUpload = pauseResult.getInfoToResume();
-			File f = new File("resume-upload");
+			File f = utils.getScratchFile("resume-upload");
 			if (!f.exists())
 				f.createNewFile();
 			FileOutputStream fos = new FileOutputStream(f);
@@ -932,7 +929,7 @@ public class AWS4Test {
 			fos.close();
 
 			// Resume upload
-			FileInputStream fis = new FileInputStream(new File("resume-upload"));
+			FileInputStream fis = new FileInputStream(utils.getScratchFile("resume-upload"));
 			PersistableUpload persistableUpload1 = PersistableTransfer.deserializeFrom(fis);
 			tm.resumeUpload(persistableUpload1);
 			fis.close();
@@ -1033,7 +1030,7 @@ public class AWS4Test {
 		Upload upl = utils.UploadFileHLAPI(svc, bucket_name, key, filePath);
 		Assert.assertEquals(upl.isDone(), true);
 
-		Download download = utils.downloadHLAPI(svc, bucket_name, key, new File(filePath));
+		Download download = utils.downloadHLAPI(svc, bucket_name, key, utils.getScratchFile("file.mpg"));
 		Assert.assertEquals(download.isDone(), true);
 
 	}
@@ -1044,7 +1041,7 @@ public class AWS4Test {
 
 		String bucket_name = utils.getBucketName(prefix);
 		String key = "key1";
-		String filePath = "./data/sample.txt";
+		String filePath = utils.getScratchFile("sample.txt").getPath();
 
 		try {
 			utils.downloadHLAPI(svc, bucket_name, key, new File(filePath));
@@ -1063,7 +1060,7 @@ public class AWS4Test {
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 		String key = "key1";
 
-		String filePath = "./data/sample.txt";
+		String filePath = utils.getScratchFile("sample.txt").getPath();
 
 		try {
 			utils.downloadHLAPI(svc, bucket_name, key, new File(filePath));
@@ -1081,7 +1078,7 @@ public class AWS4Test {
 		String bucket_name = utils.getBucketName(prefix);
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 		String key = "key1";
-		String dstDir = "./downloads";
+		String dstDir = utils.getScratchFile("downloads").getPath();
 
 		String filePath = "./data/file.mpg";
 		utils.createFile(filePath, 23 * 1024 * 1024);
@@ -1101,7 +1098,7 @@ public class AWS4Test {
 		String key = "key1";
 		String filePath = "./data/file.mpg";
 		utils.createFile(filePath, 23 * 1024 * 1024);
-		String destPath = "./data/file2.mpg";
+		String destPath = utils.getScratchFile("file2.mpg").getPath();
 
 		TransferManager tm = TransferManagerBuilder.standard().withS3Client(svc)
 				.withMultipartUploadThreshold(64 * 1024l).withMinimumUploadPartSize(64 * 1024l).build();
@@ -1120,7 +1117,7 @@ public class AWS4Test {
 		if (progress.getBytesTransferred() < progress.getTotalBytesToTransfer()) {
 			// Pause the download and create file to store download info
 			PersistableDownload persistableDownload = myDownload.pause();
-			File f = new File("resume-download");
+			File f = utils.getScratchFile("resume-download");
 			if (!f.exists())
 				f.createNewFile();
 			FileOutputStream fos = new FileOutputStream(f);
@@ -1128,7 +1125,7 @@ public class AWS4Test {
 			fos.close();
 
 			// resume download
-			FileInputStream fis = new FileInputStream(new File("resume-download"));
+			FileInputStream fis = new FileInputStream(utils.getScratchFile("resume-download"));
 			PersistableDownload persistDownload = PersistableTransfer.deserializeFrom(fis);
 			tm.resumeDownload(persistDownload);
 
@@ -1143,7 +1140,7 @@ public class AWS4Test {
 		String bucket_name = utils.getBucketName(prefix);
 
 		String key = "key1";
-		String dstDir = "./downloads";
+		String dstDir = utils.getScratchFile("downloads").getPath();
 
 		try {
 			utils.multipartDownloadHLAPI(svc, bucket_name, key, new File(dstDir));
@@ -1161,7 +1158,7 @@ public class AWS4Test {
 		String bucket_name = utils.getBucketName(prefix);
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 		String key = "key1";
-		String dstDir = "./downloads";
+		String dstDir = utils.getScratchFile("downloads").getPath();
 
 		try {
 			utils.multipartDownloadHLAPI(svc, bucket_name, key, new File(dstDir));
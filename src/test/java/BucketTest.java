@@ -28,21 +28,18 @@ public class BucketTest {
 	@AfterClass
 	public void tearDownAfterClass() throws Exception {
 		S3.logger.debug("TeardownAfterClass");
-		utils.teradownRetries = 0;
-		utils.tearDown(svc);
+		utils.tearDownAll(svc);
 	}
 
 	@AfterMethod
 	public void tearDownAfterMethod() throws Exception {
 		S3.logger.debug("TeardownAfterMethod");
-		utils.teradownRetries = 0;
 		utils.tearDown(svc);
 	}
 
 	@BeforeMethod
 	public void setUp() throws Exception {
 		S3.logger.debug("TeardownBeforeMethod");
-		utils.teradownRetries = 0;
 		utils.tearDown(svc);
 	}
 
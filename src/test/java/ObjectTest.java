@@ -36,6 +36,7 @@ import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.model.SSECustomerKey;
@@ -76,21 +77,18 @@ public class ObjectTest {
 	@AfterClass
 	public void tearDownAfterClass() throws Exception {
 		S3.logger.debug("TeardownAfterClass");
-		utils.teradownRetries = 0;
-		utils.tearDown(svc);
+		utils.tearDownAll(svc);
 	}
 
 	@AfterMethod
 	public void tearDownAfterMethod() throws Exception {
 		S3.logger.debug("TeardownAfterMethod");
-		utils.teradownRetries = 0;
 		utils.tearDown(svc);
 	}
 
 	@BeforeMethod
 	public void setUp() throws Exception {
 		S3.logger.debug("TeardownBeforeMethod");
-		utils.teradownRetries = 0;
 		utils.tearDown(svc);
 	}
 
@@ -201,6 +199,26 @@ public class ObjectTest {
 		Assert.assertEquals(resp.getObjectMetadata().getETag(), Etag);
 	}
 
+	@Test(description = "object write and read of generated content w/Etag, succeeds")
+	public void testObjectWriteReadSyntheticContent() throws IOException {
+
+		String bucket_name = utils.getBucketName(prefix);
+		String key = "key";
+		long size = 12 * 1024 * 1024 + 7;
+		long seed = 42;
+
+		svc.createBucket(new CreateBucketRequest(bucket_name));
+
+		PutObjectResult res = utils.putSyntheticObject(svc, bucket_name, key, size, seed);
+		Assert.assertEquals(res.getETag(), SyntheticObjectStream.md5Hex(seed, size));
+
+		S3Object resp = svc.getObject(new GetObjectRequest(bucket_name, key).withRange(1024, 2047));
+		Assert.assertTrue(SyntheticObjectStream.verify(resp.getObjectContent(), seed, 1024, 1024));
+
+		resp = svc.getObject(new GetObjectRequest(bucket_name, key));
+		Assert.assertTrue(SyntheticObjectStream.verify(resp.getObjectContent(), seed, 0, size));
+	}
+
 	@Test(description = "object write w/Cache-Control header, succeeds")
 	public void testObjectWriteCacheControl() {
 		String bucket_name = utils.getBucketName(prefix);
@@ -1636,6 +1654,45 @@ public class ObjectTest {
 		svc.completeMultipartUpload(resp);
 	}
 
+	@Test(description = "multipart uploads w/parallel parts using LLAPI, succeeds!")
+	public void testMultipartUploadParallelLLAPI() {
+
+		String bucket_name = utils.getBucketName(prefix);
+		String key = "key1";
+		svc.createBucket(new CreateBucketRequest(bucket_name));
+
+		String filePath = "./data/file.mpg";
+		utils.createFile(filePath, 23 * 1024 * 1024);
+		long size = 5 * 1024 * 1024;
+
+		MultipartTransfer upload = utils.multipartUploadLLAPI(svc, bucket_name, key, size, filePath,
+				utils.getPartExecutor());
+		Assert.assertEquals(upload.getParts().size(), 5);
+		Assert.assertEquals(upload.getBytes(), 23 * 1024 * 1024);
+		svc.completeMultipartUpload(upload.getCompleteRequest());
+
+		ObjectMetadata metadata = svc.getObjectMetadata(bucket_name, key);
+		Assert.assertEquals(metadata.getETag(),
+				SyntheticObjectStream.multipartETag(S3.DEFAULT_FILE_SEED, 23 * 1024 * 1024, size));
+	}
+
+	@Test(description = "multipart uploads w/planned part size using LLAPI, succeeds!")
+	public void testMultipartUploadPlannedLLAPI() {
+
+		String bucket_name = utils.getBucketName(prefix);
+		String key = "key1";
+		svc.createBucket(new CreateBucketRequest(bucket_name));
+
+		String filePath = "./data/file.mpg";
+		utils.createFile(filePath, 23 * 1024 * 1024);
+
+		MultipartTransfer upload = utils.multipartUploadLLAPI(svc, bucket_name, key, filePath);
+		Assert.assertTrue(upload.getParts().size() <= PartSizePlanner.MAX_PARTS);
+		svc.completeMultipartUpload(upload.getCompleteRequest());
+
+		Assert.assertEquals(svc.getObjectMetadata(bucket_name, key).getContentLength(), 23 * 1024 * 1024);
+	}
+
 	@Test(description = "multipart uploads w/missing part using LLAPI, fails!")
 	public void testMultipartUploadIncorrectMissingPartLLAPI() {
 
@@ -1737,7 +1794,7 @@ public class ObjectTest {
 		String key = "key1";
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 
-		String filePath = "./data/sample.txt";
+		String filePath = utils.getScratchFile("sample.txt").getPath();
 		utils.createFile(filePath, 256 * 1024);
 		long size = 5 * 1024 * 1024;
 
@@ -1794,6 +1851,32 @@ public class ObjectTest {
 		svc.completeMultipartUpload(resp6);
 	}
 
+	@Test(description = "multipart copy w/parallel parts using LLAPI, succeeds!")
+	public void testMultipartCopyParallelLLAPI() {
+
+		String src_bkt = utils.getBucketName(prefix);
+		String dst_bkt = utils.getBucketName(prefix);
+		String key = "key1";
+
+		svc.createBucket(new CreateBucketRequest(src_bkt));
+		svc.createBucket(new CreateBucketRequest(dst_bkt));
+
+		String filePath = "./data/file.mpg";
+		utils.createFile(filePath, 23 * 1024 * 1024);
+		svc.putObject(new PutObjectRequest(src_bkt, key, new File(filePath)));
+		long size = 5 * 1024 * 1024 + 100 * 1024;
+
+		MultipartTransfer copy = utils.multipartCopyLLAPI(svc, dst_bkt, key, src_bkt, key, size,
+				utils.getPartExecutor());
+		Assert.assertEquals(copy.getParts().size(), 5);
+		Assert.assertEquals(copy.getBytes(), 23 * 1024 * 1024);
+		svc.completeMultipartUpload(copy.getCompleteRequest());
+
+		ObjectMetadata metadata = svc.getObjectMetadata(dst_bkt, key);
+		Assert.assertEquals(metadata.getETag(),
+				SyntheticObjectStream.multipartETag(S3.DEFAULT_FILE_SEED, 23 * 1024 * 1024, size));
+	}
+
 	@Test(description = "Upload of a  file using HLAPI, succeeds!")
 	public void testUploadFileHLAPIBigFile() {
 
@@ -1816,7 +1899,7 @@ public class ObjectTest {
 		String bucket_name = utils.getBucketName(prefix);
 		String key = "key1";
 
-		String filePath = "./data/sample.txt";
+		String filePath = utils.getScratchFile("sample.txt").getPath();
 		utils.createFile(filePath, 256 * 1024);
 
 		try {
@@ -1836,8 +1919,9 @@ public class ObjectTest {
 
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 
-		String dir = "./data";
-		String filePath = "./data/file.mpg";
+		String dir = utils.getScratchFile("upload").getPath();
+		String filePath = dir + "/file.mpg";
+		new File(dir).mkdirs();
 		utils.createFile(filePath, 23 * 1024 * 1024);
 
 		Transfer upl = utils.multipartUploadHLAPI(svc, bucket_name, null, dir);
@@ -1852,8 +1936,9 @@ public class ObjectTest {
 
 		String bucket_name = utils.getBucketName(prefix);
 
-		String dir = "./data";
-		String filePath = "./data/file.mpg";
+		String dir = utils.getScratchFile("upload").getPath();
+		String filePath = dir + "/file.mpg";
+		new File(dir).mkdirs();
 		utils.createFile(filePath, 23 * 1024 * 1024);
 
 		try {
@@ -1873,7 +1958,7 @@ public class ObjectTest {
 
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 
-		String filePath = "./data/file.mpg";
+		String filePath = "./data/file53.mpg";
 		utils.createFile(filePath, 53 * 1024 * 1024);
 		String key = "key1";
 
@@ -1894,7 +1979,7 @@ public class ObjectTest {
 
 			// persist PersistableUpload info to a file
 			PersistableUpload persistableUpload = pauseResult.getInfoToResume();
-			File f = new File("resume-upload");
+			File f = utils.getScratchFile("resume-upload");
 			if (!f.exists())
 				f.createNewFile();
 			FileOutputStream fos = new FileOutputStream(f);
@@ -1902,7 +1987,7 @@ public class ObjectTest {
 			fos.close();
 
 			// Resume upload
-			FileInputStream fis = new FileInputStream(new File("resume-upload"));
+			FileInputStream fis = new FileInputStream(utils.getScratchFile("resume-upload"));
 			PersistableUpload persistableUpload1 = PersistableTransfer.deserializeFrom(fis);
 			tm.resumeUpload(persistableUpload1);
 			fis.close();
@@ -2001,7 +2086,7 @@ public class ObjectTest {
 		Upload upl = utils.UploadFileHLAPI(svc, bucket_name, key, filePath);
 		Assert.assertEquals(upl.isDone(), true);
 
-		Download download = utils.downloadHLAPI(svc, bucket_name, key, new File(filePath));
+		Download download = utils.downloadHLAPI(svc, bucket_name, key, utils.getScratchFile("sample.txt"));
 		Assert.assertEquals(download.isDone(), true);
 	}
 
@@ -2010,7 +2095,7 @@ public class ObjectTest {
 
 		String bucket_name = utils.getBucketName(prefix);
 		String key = "key1";
-		String filePath = "./data/sample.txt";
+		String filePath = utils.getScratchFile("sample.txt").getPath();
 		utils.createFile(filePath, 256 * 1024);
 
 		try {
@@ -2028,7 +2113,7 @@ public class ObjectTest {
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 		String key = "key1";
 
-		String filePath = "./data/sample.txt";
+		String filePath = utils.getScratchFile("sample.txt").getPath();
 		utils.createFile(filePath, 256 * 1024);
 
 		try {
@@ -2046,7 +2131,7 @@ public class ObjectTest {
 		String bucket_name = utils.getBucketName(prefix);
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 		String key = "key1";
-		String dstDir = "./downloads";
+		String dstDir = utils.getScratchFile("downloads").getPath();
 
 		String filePath = "./data/file.mpg";
 		utils.createFile(filePath, 23 * 1024 * 1024);
@@ -2066,7 +2151,7 @@ public class ObjectTest {
 		String key = "key1";
 		String filePath = "./data/file.mpg";
 		utils.createFile(filePath, 23 * 1024 * 1024);
-		String destPath = "./data/file2.mpg";
+		String destPath = utils.getScratchFile("file2.mpg").getPath();
 
 		TransferManager tm = TransferManagerBuilder.standard().withMinimumUploadPartSize(512 * 1024l)
 				.withMultipartUploadThreshold(256 * 1024l).withS3Client(svc).build();
@@ -2089,7 +2174,7 @@ public class ObjectTest {
 		if (progress.getBytesTransferred() < progress.getTotalBytesToTransfer()) {
 			// Pause the download and create file to store download info
 			PersistableDownload persistableDownload = myDownload.pause();
-			File f = new File("resume-download");
+			File f = utils.getScratchFile("resume-download");
 			if (!f.exists())
 				f.createNewFile();
 			FileOutputStream fos = new FileOutputStream(f);
@@ -2097,7 +2182,7 @@ public class ObjectTest {
 			fos.close();
 
 			// resume download
-			FileInputStream fis = new FileInputStream(new File("resume-download"));
+			FileInputStream fis = new FileInputStream(utils.getScratchFile("resume-download"));
 			PersistableDownload persistDownload = PersistableTransfer.deserializeFrom(fis);
 			tm.resumeDownload(persistDownload);
 
@@ -2112,7 +2197,7 @@ public class ObjectTest {
 		String bucket_name = utils.getBucketName(prefix);
 
 		String key = "key1";
-		String dstDir = "./downloads";
+		String dstDir = utils.getScratchFile("downloads").getPath();
 
 		try {
 			utils.multipartDownloadHLAPI(svc, bucket_name, key, new File(dstDir));
@@ -2130,7 +2215,7 @@ public class ObjectTest {
 		String bucket_name = utils.getBucketName(prefix);
 		svc.createBucket(new CreateBucketRequest(bucket_name));
 		String key = "key1";
-		String dstDir = "./downloads";
+		String dstDir = utils.getScratchFile("downloads").getPath();
 
 		try {
 			utils.multipartDownloadHLAPI(svc, bucket_name, key, new File(dstDir));
@@ -2151,7 +2236,7 @@ public class ObjectTest {
 		ArrayList<File> files = new ArrayList<File>();
 
 		String fname1 = "./data/file.mpg";
-		String fname2 = "./data/sample.txt";
+		String fname2 = utils.getScratchFile("sample.txt").getPath();
 		utils.createFile(fname1, 23 * 1024 * 1024);
 		utils.createFile(fname2, 256 * 1024);
 		files.add(new File(fname1));
@@ -0,0 +1,27 @@
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+
+/**
+ * Turns on per-thread bucket prefixes when the suite runs with parallel set,
+ * and sweeps the buckets of all the workers once the suite is done, which the
+ * per-class teardowns cannot do while other workers are still running.
+ * Registered in testng.xml and testng-parallel.xml.
+ */
+public class ParallelSuiteListener implements ISuiteListener {
+
+	private static boolean isParallel(ISuite suite) {
+		String parallel = suite.getParallel();
+		return parallel != null && !parallel.equals("false") && !parallel.equals("none");
+	}
+
+	public void onStart(ISuite suite) {
+		S3.getInstance().setParallel(isParallel(suite));
+	}
+
+	public void onFinish(ISuite suite) {
+		S3 utils = S3.getInstance();
+		if (utils.isParallel()) {
+			utils.tearDownAll(utils.getS3Client(false), utils.getPrefix());
+		}
+	}
+}
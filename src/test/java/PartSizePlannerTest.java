@@ -0,0 +1,37 @@
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the multipart part limits without a gateway.
+ */
+public class PartSizePlannerTest {
+
+	@Test(description = "10000 parts are accepted")
+	public void testCheckPartCountAtLimit() {
+
+		PartSizePlanner.checkPartCount(10000L * 1024, 1024);
+		PartSizePlanner.checkPartCount(10000L * 1024 - 1, 1024);
+	}
+
+	@Test(description = "more than 10000 parts are rejected before any request")
+	public void testCheckPartCountTooManyParts() {
+
+		try {
+			PartSizePlanner.checkPartCount(23 * 1024 * 1024, 1024);
+			AssertJUnit.fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException err) {
+			AssertJUnit.assertEquals("24117248 bytes in parts of 1024 bytes exceeds 10000 parts", err.getMessage());
+		}
+	}
+
+	@Test(description = "part size must be positive")
+	public void testCheckPartCountZeroPartSize() {
+
+		try {
+			PartSizePlanner.checkPartCount(1024, 0);
+			AssertJUnit.fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException err) {
+			AssertJUnit.assertEquals("Part size must be positive: 0", err.getMessage());
+		}
+	}
+}
@@ -0,0 +1,38 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+
+/**
+ * Keeps only the test methods that belong to this JVM's shard when the suite
+ * is split with shard_index and shard_count. A method's shard is the hash of
+ * its class and method name, so every JVM, on every machine, agrees on the
+ * split without talking to the others, and adding a test only moves that one
+ * test. Registered in testng.xml and testng-parallel.xml.
+ */
+public class ShardInterceptor implements IMethodInterceptor {
+
+	static int shardOf(ITestNGMethod method, int shardCount) {
+		String name = method.getRealClass().getSimpleName() + "." + method.getMethodName();
+		return Math.floorMod(name.hashCode(), shardCount);
+	}
+
+	public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+		S3Config config = S3.getInstance().getConfig();
+		if (config.getShardCount() <= 1) {
+			return methods;
+		}
+		List<IMethodInstance> kept = new ArrayList<IMethodInstance>();
+		for (IMethodInstance instance : methods) {
+			if (shardOf(instance.getMethod(), config.getShardCount()) == config.getShardIndex()) {
+				kept.add(instance);
+			}
+		}
+		S3.logger.info(String.format("Shard %d of %d runs %d of %d methods in %s", config.getShardIndex(),
+				config.getShardCount(), kept.size(), methods.size(), context.getName()));
+		return kept;
+	}
+}
@@ -0,0 +1,21 @@
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * Tells S3 which test or configuration method is running on the current
+ * thread, so the SDK calls it makes are attributed to it in the request
+ * timings. Registered in testng.xml.
+ */
+public class TestNameListener implements IInvokedMethodListener {
+
+	public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+		ITestNGMethod m = method.getTestMethod();
+		S3.setCurrentTest(m.getRealClass().getSimpleName() + "." + m.getMethodName());
+	}
+
+	public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+		S3.setCurrentTest(null);
+	}
+}
@@ -0,0 +1,230 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+import com.amazonaws.util.json.Jackson;
+
+/**
+ * Times every test method in three parts: its @BeforeMethod setup, its body
+ * and its @AfterMethod teardown, and counts the SDK calls made in each test
+ * from start of setup to end of teardown. When the suite is done the timings
+ * are written to timing_report as JSON and as a text table, slowest test
+ * first, which the Gradle test task prints. The JSON also holds the suite's
+ * S3 calls per second and the latency percentiles of each operation, so
+ * BaselineCompare can hold a run against a baseline. Registered in testng.xml.
+ *
+ * TestNG runs the setup, body and teardown of a test one after the other on
+ * the same thread but does not tell the setup which test it is for, so the
+ * setup is kept per thread until the body it belongs to has run.
+ */
+public class TestTimingListener implements IInvokedMethodListener, ISuiteListener {
+
+	public static class TestTiming {
+		private String test;
+		private String status;
+		private long setupNanos;
+		private long bodyNanos;
+		private long teardownNanos;
+		private final LongAdder requests = new LongAdder();
+
+		public String getTest() {
+			return test;
+		}
+
+		public String getStatus() {
+			return status;
+		}
+
+		public double getSetupMillis() {
+			return setupNanos / 1e6;
+		}
+
+		public double getBodyMillis() {
+			return bodyNanos / 1e6;
+		}
+
+		public double getTeardownMillis() {
+			return teardownNanos / 1e6;
+		}
+
+		public double getTotalMillis() {
+			return (setupNanos + bodyNanos + teardownNanos) / 1e6;
+		}
+
+		public long getRequests() {
+			return requests.sum();
+		}
+	}
+
+	private static class ThreadState {
+		long start;
+		// the test whose setup is running or done, before its body ran
+		TestTiming next;
+		// the test whose body ran last, whose teardown comes next
+		TestTiming last;
+	}
+
+	private final ThreadLocal<ThreadState> state = ThreadLocal.withInitial(ThreadState::new);
+	private final ConcurrentLinkedQueue<TestTiming> timings = new ConcurrentLinkedQueue<TestTiming>();
+	private long suiteStart;
+
+	private static String name(ITestNGMethod m) {
+		return m.getRealClass().getSimpleName() + "." + m.getMethodName();
+	}
+
+	private static String status(ITestResult result) {
+		switch (result.getStatus()) {
+		case ITestResult.SUCCESS:
+			return "PASS";
+		case ITestResult.FAILURE:
+		case ITestResult.SUCCESS_PERCENTAGE_FAILURE:
+			return "FAIL";
+		case ITestResult.SKIP:
+			return "SKIP";
+		default:
+			return "UNKNOWN";
+		}
+	}
+
+	public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+		ITestNGMethod m = method.getTestMethod();
+		ThreadState s = state.get();
+		TestTiming timing = null;
+		if (m.isBeforeMethodConfiguration() || method.isTestMethod()) {
+			if (s.next == null) {
+				s.next = new TestTiming();
+			}
+			timing = s.next;
+		} else if (m.isAfterMethodConfiguration()) {
+			timing = s.last;
+		}
+		S3.setRequestCounter(timing == null ? null : timing.requests);
+		s.start = System.nanoTime();
+	}
+
+	public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+		ITestNGMethod m = method.getTestMethod();
+		ThreadState s = state.get();
+		long elapsed = System.nanoTime() - s.start;
+		S3.setRequestCounter(null);
+		if (m.isBeforeMethodConfiguration()) {
+			s.next.setupNanos += elapsed;
+		} else if (method.isTestMethod()) {
+			TestTiming timing = s.next;
+			timing.test = name(m);
+			timing.status = status(testResult);
+			timing.bodyNanos = elapsed;
+			timings.add(timing);
+			s.next = null;
+			s.last = timing;
+		} else if (m.isAfterMethodConfiguration() && s.last != null) {
+			s.last.teardownNanos += elapsed;
+		}
+	}
+
+	public void onStart(ISuite suite) {
+		suiteStart = System.nanoTime();
+	}
+
+	public void onFinish(ISuite suite) {
+		S3Config config = S3.getInstance().getConfig();
+		String base = config.getTimingReport();
+		if (base.isEmpty() || timings.isEmpty()) {
+			return;
+		}
+		if (config.getShardCount() > 1) {
+			base += "-shard" + config.getShardIndex();
+		}
+		List<TestTiming> sorted = new ArrayList<TestTiming>(timings);
+		Collections.sort(sorted, Comparator.comparingDouble(TestTiming::getTotalMillis).reversed());
+
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("suite", suite.getName());
+		report.put("shardIndex", config.getShardIndex());
+		report.put("shardCount", config.getShardCount());
+		report.put("parallel", S3.getInstance().isParallel());
+		report.putAll(operations((System.nanoTime() - suiteStart) / 1e6));
+		report.put("tests", sorted);
+		try {
+			File json = new File(base + ".json");
+			if (json.getAbsoluteFile().getParentFile() != null) {
+				json.getAbsoluteFile().getParentFile().mkdirs();
+			}
+			Files.write(json.toPath(), Jackson.toJsonPrettyString(report).getBytes(StandardCharsets.UTF_8));
+			try (PrintWriter out = new PrintWriter(base + ".txt", "UTF-8")) {
+				out.print(table(sorted));
+			}
+		} catch (IOException e) {
+			S3.logger.warn(String.format("Could not write the timing report %s: %s", base, e));
+		}
+	}
+
+	/*
+	 * The wall time of the suite, its S3 calls per second and the latency
+	 * percentiles of every operation, for BaselineCompare.
+	 */
+	private static Map<String, Object> operations(double wallMillis) {
+		long calls = 0;
+		Map<String, Object> operations = new TreeMap<String, Object>();
+		for (Map.Entry<String, OperationStats> e : S3.getInstance().getLatencyMetrics().getStats().entrySet()) {
+			Histogram h = e.getValue().total();
+			Map<String, Object> op = new LinkedHashMap<String, Object>();
+			op.put("calls", h.getTotalCount());
+			op.put("errors", e.getValue().getErrors());
+			op.put("meanMillis", h.getMean() / 1e3);
+			op.put("p50Millis", h.getValueAtPercentile(50) / 1e3);
+			op.put("p90Millis", h.getValueAtPercentile(90) / 1e3);
+			op.put("p99Millis", h.getValueAtPercentile(99) / 1e3);
+			op.put("maxMillis", h.getMaxValue() / 1e3);
+			operations.put(e.getKey(), op);
+			calls += h.getTotalCount();
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("wallMillis", wallMillis);
+		result.put("calls", calls);
+		result.put("callsPerSecond", calls / (wallMillis / 1e3));
+		result.put("operations", operations);
+		return result;
+	}
+
+	static String table(List<TestTiming> sorted) {
+		double setup = 0, body = 0, teardown = 0;
+		long requests = 0;
+		for (TestTiming t : sorted) {
+			setup += t.getSetupMillis();
+			body += t.getBodyMillis();
+			teardown += t.getTeardownMillis();
+			requests += t.getRequests();
+		}
+		StringBuilder sb = new StringBuilder(String.format(
+				"%d tests, setup %.1f s, body %.1f s, teardown %.1f s, %d requests%n", sorted.size(), setup / 1e3,
+				body / 1e3, teardown / 1e3, requests));
+		sb.append(String.format("%-72s %6s %10s %10s %11s %10s %8s%n", "test", "status", "setup ms", "body ms",
+				"teardown ms", "total ms", "requests"));
+		for (TestTiming t : sorted) {
+			sb.append(String.format("%-72s %6s %10.1f %10.1f %11.1f %10.1f %8d%n", t.getTest(), t.getStatus(),
+					t.getSetupMillis(), t.getBodyMillis(), t.getTeardownMillis(), t.getTotalMillis(),
+					t.getRequests()));
+		}
+		return sb.toString();
+	}
+}
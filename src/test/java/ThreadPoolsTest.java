@@ -0,0 +1,61 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the executors of the S3 helpers without a gateway.
+ */
+public class ThreadPoolsTest {
+
+	ExecutorService executor = ThreadPools
+			.inheritTestContext(Executors.newSingleThreadExecutor(ThreadPools.daemonThreads("pools-test")));
+
+	@AfterClass
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test(description = "tasks run with the test name and request counter of the submitting thread")
+	public void testInheritTestContext() throws Exception {
+
+		String outerTest = S3.getCurrentTest();
+		LongAdder outerCounter = S3.getRequestCounter();
+		LongAdder counter = new LongAdder();
+		S3.setCurrentTest("ThreadPoolsTest.submitter");
+		S3.setRequestCounter(counter);
+		try {
+			LongAdder seen = executor.submit(() -> {
+				AssertJUnit.assertEquals("ThreadPoolsTest.submitter", S3.getCurrentTest());
+				return S3.getRequestCounter();
+			}).get();
+			AssertJUnit.assertSame(counter, seen);
+		} finally {
+			S3.setCurrentTest(outerTest);
+			S3.setRequestCounter(outerCounter);
+		}
+	}
+
+	@Test(description = "pool threads do not keep the context of an earlier task")
+	public void testInheritTestContextCleared() throws Exception {
+
+		String outerTest = S3.getCurrentTest();
+		LongAdder outerCounter = S3.getRequestCounter();
+		S3.setCurrentTest("ThreadPoolsTest.first");
+		S3.setRequestCounter(new LongAdder());
+		try {
+			executor.submit(() -> {
+			}).get();
+			S3.setCurrentTest(null);
+			S3.setRequestCounter(null);
+			AssertJUnit.assertNull(executor.submit(() -> S3.getRequestCounter()).get());
+			AssertJUnit.assertNull(executor.submit(() -> S3.getCurrentTest()).get());
+		} finally {
+			S3.setCurrentTest(outerTest);
+			S3.setRequestCounter(outerCounter);
+		}
+	}
+}